@@ -0,0 +1,167 @@
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Adaptive Replacement Cache. Resident pages are split between a recency list T1,
+ * pages used once since they came in, and a frequency list T2, pages used again;
+ * two ghost lists B1 and B2 remember the pages recently evicted from each. A fault
+ * on a page in B1 means T1 was too small and grows its target size, a fault on a
+ * page in B2 shrinks it, so the split follows the workload and a one-off scan cannot
+ * flush the pages in steady use. Since the kernel does not see hits, the lists are
+ * kept the way CAR does it: a page found with its referenced bit set when it reaches
+ * the head of a list is cleared and moved to the tail of T2 instead of being evicted.
+ * The lists are linked through int arrays indexed by frame. Every page looked at is
+ * moved or evicted, so an eviction costs O(1) amortized while few pages are
+ * unevictable; pages passed over as unevictable are looked at again next time.
+ */
+public class AdaptiveReplacementPolicy implements PageReplacementPolicy {
+
+    private static final int NONE = -1;
+    private static final byte RECENT = 1;
+    private static final byte FREQUENT = 2;
+
+    private final int capacity;
+    private final int[] next;
+    private final int[] previous;
+    private final byte[] list; //Which list each frame is on, 0 for none
+    private final long[] pages;
+    private final int[] heads = {NONE, NONE, NONE};
+    private final int[] tails = {NONE, NONE, NONE};
+    private final int[] sizes = new int[3];
+
+    //Pages evicted from T1 and T2, oldest first
+    private final LinkedHashSet<Long> recentGhosts = new LinkedHashSet<>();
+    private final LinkedHashSet<Long> frequentGhosts = new LinkedHashSet<>();
+
+    //Target size of T1
+    private int target;
+
+    /**
+     * Creates a policy for a memory with no pages in it
+     * @param frames The number of frames
+     */
+    public AdaptiveReplacementPolicy(int frames) {
+        capacity = frames;
+        next = new int[frames];
+        previous = new int[frames];
+        list = new byte[frames];
+        pages = new long[frames];
+    }
+
+    /**
+     * Puts a page on T1, or on T2 if it was evicted recently, adapting the target
+     * size of T1 toward the list whose ghost it was found in
+     */
+    @Override
+    public void pageIn(int frame, long page) {
+        free(frame);
+        pages[frame] = page;
+        Long key = page;
+        if (recentGhosts.remove(key)) {
+            target = Math.min(capacity, target + Math.max(1, frequentGhosts.size() / Math.max(1, recentGhosts.size())));
+            append(frame, FREQUENT);
+        } else if (frequentGhosts.remove(key)) {
+            target = Math.max(0, target - Math.max(1, recentGhosts.size() / Math.max(1, frequentGhosts.size())));
+            append(frame, FREQUENT);
+        } else {
+            append(frame, RECENT);
+        }
+    }
+
+    //Keeps the page where it is on its list, so only the ghost it leaves on eviction changes
+    @Override
+    public void rename(int frame, long page) {
+        pages[frame] = page;
+    }
+
+    @Override
+    public void free(int frame) {
+        if (list[frame] != 0) {
+            unlink(frame);
+        }
+    }
+
+    /**
+     * Evicts from the head of T1 while T1 is at or above its target, otherwise from the
+     * head of T2; referenced pages at the head are cleared and moved to T2 instead. Once
+     * a whole list has been passed over as unevictable, the other list is tried.
+     */
+    @Override
+    public int selectVictim(Frames frames) {
+        int[] pinned = new int[3]; //Unevictable pages passed over on each list in this call
+        for (int budget = 2 * (sizes[RECENT] + sizes[FREQUENT]) + 1; budget > 0; budget--) {
+            if (sizes[RECENT] + sizes[FREQUENT] == 0) {
+                return -1;
+            }
+            byte from = sizes[RECENT] > 0 && (sizes[RECENT] >= Math.max(1, target) || sizes[FREQUENT] == 0) ? RECENT : FREQUENT;
+            byte other = from == RECENT ? FREQUENT : RECENT;
+            if (pinned[from] >= sizes[from] && pinned[other] < sizes[other]) {
+                from = other;
+            }
+            int frame = heads[from];
+            unlink(frame);
+            if (frames.isReferenced(frame)) {
+                frames.clearReferenced(frame);
+                append(frame, FREQUENT);
+            } else if (!frames.isEvictable(frame)) {
+                append(frame, from);
+                pinned[from]++;
+            } else {
+                remember(from == RECENT ? recentGhosts : frequentGhosts, pages[frame]);
+                return frame;
+            }
+        }
+        return -1;
+    }
+
+    //Adds an evicted page to a ghost list, dropping the oldest ghost once the list holds as many pages as memory
+    private void remember(LinkedHashSet<Long> ghosts, long page) {
+        ghosts.add(page);
+        if (ghosts.size() > capacity) {
+            Iterator<Long> oldest = ghosts.iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    //Links a frame at the tail of a list
+    private void append(int frame, byte to) {
+        list[frame] = to;
+        next[frame] = NONE;
+        previous[frame] = tails[to];
+        if (tails[to] == NONE) {
+            heads[to] = frame;
+        } else {
+            next[tails[to]] = frame;
+        }
+        tails[to] = frame;
+        sizes[to]++;
+    }
+
+    //Takes a frame off its list
+    private void unlink(int frame) {
+        byte from = list[frame];
+        if (previous[frame] == NONE) {
+            heads[from] = next[frame];
+        } else {
+            next[previous[frame]] = next[frame];
+        }
+        if (next[frame] == NONE) {
+            tails[from] = previous[frame];
+        } else {
+            previous[next[frame]] = previous[frame];
+        }
+        list[frame] = 0;
+        sizes[from]--;
+    }
+
+    //Returns the current target size of the recency list
+    public int getTarget() {
+        return target;
+    }
+
+    @Override
+    public String getName() {
+        return "arc";
+    }
+}
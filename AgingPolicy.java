@@ -0,0 +1,95 @@
+/**
+ * Approximate LRU with aging counters. Each resident page has an 8-bit age; an aging
+ * pass shifts every age right and moves the page's referenced bit into the top bit,
+ * then clears the referenced bit, so the age holds the page's use over its last eight
+ * passes with recent use weighing most. A pass runs once every eighth of the resident
+ * pages has been replaced, which keeps its cost per eviction constant. The victim is
+ * the page with the lowest age, a page referenced since the last pass counting as
+ * newer than any age; ties go to a clean page. Finding it scans the resident pages,
+ * stopping early only at an untouched clean page, so unlike clock and ARC, which take
+ * the first page that qualifies, an eviction usually costs O(frames). Keeping pages in
+ * buckets by age would not help: the referenced bit outranks the age and is set by the
+ * page table walk without the policy seeing it. Use it to compare victim quality, not
+ * on large memories under heavy paging.
+ */
+public class AgingPolicy implements PageReplacementPolicy {
+
+    private static final int REFERENCED_NOW = 0x100; //Counts a page used since the last pass as newer than any age
+
+    private final boolean[] resident;
+    private final int[] ages;
+    private int residentCount;
+    private int evictionsSinceAging;
+    private int hand;
+
+    /**
+     * Creates a policy for a memory with no pages in it
+     * @param frames The number of frames
+     */
+    public AgingPolicy(int frames) {
+        resident = new boolean[frames];
+        ages = new int[frames];
+    }
+
+    @Override
+    public void pageIn(int frame, long page) {
+        if (!resident[frame]) {
+            resident[frame] = true;
+            residentCount++;
+        }
+        ages[frame] = 0;
+    }
+
+    @Override
+    public void free(int frame) {
+        if (resident[frame]) {
+            resident[frame] = false;
+            residentCount--;
+        }
+    }
+
+    @Override
+    public int selectVictim(Frames frames) {
+        if (evictionsSinceAging++ >= residentCount / 8) {
+            age(frames);
+            evictionsSinceAging = 0;
+        }
+        int victim = -1;
+        int lowest = Integer.MAX_VALUE;
+        for (int i = 0; i < resident.length && lowest > 0; i++) {
+            int frame = hand;
+            hand = hand + 1 == resident.length ? 0 : hand + 1;
+            if (!resident[frame] || !frames.isEvictable(frame)) {
+                continue;
+            }
+            // Lowest age first, and among equal ages a clean page before a dirty one
+            int key = ((ages[frame] | (frames.isReferenced(frame) ? REFERENCED_NOW : 0)) << 1) | (frames.isDirty(frame) ? 1 : 0);
+            if (key < lowest) {
+                lowest = key;
+                victim = frame;
+            }
+        }
+        if (victim != -1) {
+            free(victim);
+        }
+        return victim;
+    }
+
+    //Shifts every resident page's referenced bit into its age
+    private void age(Frames frames) {
+        for (int frame = 0; frame < resident.length; frame++) {
+            if (resident[frame]) {
+                boolean referenced = frames.isReferenced(frame);
+                ages[frame] = (ages[frame] >>> 1) | (referenced ? 0x80 : 0);
+                if (referenced) {
+                    frames.clearReferenced(frame);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "aging";
+    }
+}
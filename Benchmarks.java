@@ -0,0 +1,1557 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Benchmarks and demonstrations of the simulator's scheduling, system call, memory
+ * and paging code, kept apart from Main, the starting point of the Operating System.
+ * Run one by name, with the system properties it reads:
+ * java -Dos.memory=4M Benchmarks DemandPaging. The kernel is static and boots once
+ * per JVM, so a run is one benchmark. Each benchmark ends the processes it creates;
+ * the kernel thread and the scheduler's timer, which run for the life of the JVM, are
+ * stopped by exiting once the benchmark returns.
+ */
+public class Benchmarks {
+
+    //A benchmark the entry point can run by name
+    private interface Benchmark {
+        void run() throws Exception;
+    }
+
+    private static final Map<String, Benchmark> BENCHMARKS = new LinkedHashMap<>();
+
+    static {
+        BENCHMARKS.put("SchedulingLatency", Benchmarks::SchedulingLatency);
+        BENCHMARKS.put("PolicyComparison", Benchmarks::PolicyComparison);
+        BENCHMARKS.put("SleeperStress", Benchmarks::SleeperStress);
+        BENCHMARKS.put("ProcessCreationScaling", Benchmarks::ProcessCreationScaling);
+        BENCHMARKS.put("MultiCoreThroughput", Benchmarks::MultiCoreThroughput);
+        BENCHMARKS.put("RealTimeLatency", Benchmarks::RealTimeLatency);
+        BENCHMARKS.put("VirtualTimeScenario", Benchmarks::VirtualTimeScenario);
+        BENCHMARKS.put("SchedulerStatisticsReport", Benchmarks::SchedulerStatisticsReport);
+        BENCHMARKS.put("ConcurrentSystemCalls", Benchmarks::ConcurrentSystemCalls);
+        BENCHMARKS.put("BatchedSystemCalls", Benchmarks::BatchedSystemCalls);
+        BENCHMARKS.put("RingDeviceReads", Benchmarks::RingDeviceReads);
+        BENCHMARKS.put("SystemCallRoundTrip", Benchmarks::SystemCallRoundTrip);
+        BENCHMARKS.put("FastPathSystemCalls", Benchmarks::FastPathSystemCalls);
+        BENCHMARKS.put("SystemCallTableReport", Benchmarks::SystemCallTableReport);
+        BENCHMARKS.put("TlbHitRate", Benchmarks::TlbHitRate);
+        BENCHMARKS.put("PhysicalMemorySize", Benchmarks::PhysicalMemorySize);
+        BENCHMARKS.put("BulkMemoryThroughput", Benchmarks::BulkMemoryThroughput);
+        BENCHMARKS.put("BuddyAllocatorFragmentation", Benchmarks::BuddyAllocatorFragmentation);
+        BENCHMARKS.put("BitmapFrameAllocation", Benchmarks::BitmapFrameAllocation);
+        BENCHMARKS.put("DemandPaging", Benchmarks::DemandPaging);
+        BENCHMARKS.put("FaultLatency", Benchmarks::FaultLatency);
+        BENCHMARKS.put("ReadaheadScan", Benchmarks::ReadaheadScan);
+        BENCHMARKS.put("CompressedSwapTiers", Benchmarks::CompressedSwapTiers);
+        BENCHMARKS.put("ForkCopyOnWrite", Benchmarks::ForkCopyOnWrite);
+        BENCHMARKS.put("PageTableFootprint", Benchmarks::PageTableFootprint);
+        BENCHMARKS.put("PageReplacementTrace", Benchmarks::PageReplacementTrace);
+    }
+
+    /**
+     * Runs the benchmark named by the first argument, then exits the JVM
+     * @param args The benchmark's name; with none, or a name that is not a benchmark, the names are listed
+     */
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = args.length == 0 ? null : BENCHMARKS.get(args[0]);
+        if (benchmark == null) {
+            System.out.println("Usage: java Benchmarks <name>, where name is one of:");
+            for (String name : BENCHMARKS.keySet()) {
+                System.out.println("  " + name);
+            }
+            System.exit(args.length == 0 ? 0 : 1);
+        }
+        benchmark.run();
+        System.exit(0);
+    }
+
+    //Benchmarks the feedback queue: p99 ticks spent ready-but-waiting, per starting priority
+    public static void SchedulingLatency() {
+        runWorkload(new MultilevelFeedbackQueue());
+    }
+
+    //Runs the same workload through each scheduling policy to compare fairness and throughput
+    public static void PolicyComparison() {
+        for (String name : new String[] {"mlfq", "cfs"}) {
+            System.out.println(name + ":");
+            runWorkload(SchedulingPolicy.create(name));
+        }
+    }
+
+    //Simulates 12 processes per priority on one core, then prints wait, CPU share, fairness and dispatch rate
+    private static void runWorkload(SchedulingPolicy queue) {
+        int perLevel = 12;
+        int ticks = 200_000;
+        Random random = new Random(42);
+        IdentityHashMap<UserlandProcess, OS.Priority> basePriority = new IdentityHashMap<>();
+        IdentityHashMap<UserlandProcess, Integer> readySince = new IdentityHashMap<>();
+        IdentityHashMap<UserlandProcess, int[]> cpuTicks = new IdentityHashMap<>();
+
+        for (OS.Priority priority : OS.Priority.values()) {
+            for (int i = 0; i < perLevel; i++) {
+                UserlandProcess up = new UserlandProcess() {
+                    @Override
+                    void main() { }
+                };
+                up.setPriority(priority);
+                basePriority.put(up, priority);
+                readySince.put(up, 0);
+                cpuTicks.put(up, new int[1]);
+                queue.enqueue(up);
+            }
+        }
+
+        // HIGH processes block often, LOW processes are CPU bound
+        double[] yieldChance = {0.6, 0.3, 0.05};
+        int[][] waits = new int[OS.Priority.values().length][ticks];
+        int[] counts = new int[waits.length];
+
+        long start = System.nanoTime();
+        UserlandProcess running = null;
+        for (int now = 0; now < ticks; now++) {
+            if (running == null) {
+                running = queue.dequeue();
+                int level = basePriority.get(running).ordinal();
+                waits[level][counts[level]++] = now - readySince.get(running);
+            }
+            // A process that blocks before the tick gives up the CPU without being charged
+            boolean blocked = random.nextDouble() < yieldChance[basePriority.get(running).ordinal()];
+            boolean expired = queue.tick(blocked ? null : running);
+            if (!blocked) {
+                cpuTicks.get(running)[0]++;
+            }
+            if (blocked || expired) {
+                if (expired) {
+                    queue.quantumExpired(running);
+                }
+                readySince.put(running, now + 1);
+                queue.enqueue(running);
+                running = null;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int dispatches = 0;
+        for (OS.Priority priority : OS.Priority.values()) {
+            int level = priority.ordinal();
+            int[] sorted = Arrays.copyOf(waits[level], counts[level]);
+            Arrays.sort(sorted);
+            int p99 = sorted.length == 0 ? 0 : sorted[(int) (sorted.length * 0.99)];
+            dispatches += sorted.length;
+
+            // Jain's fairness index over the CPU time of processes that started at the same priority
+            long cpu = 0;
+            double sum = 0;
+            double squares = 0;
+            for (UserlandProcess up : basePriority.keySet()) {
+                if (basePriority.get(up) == priority) {
+                    int share = cpuTicks.get(up)[0];
+                    cpu += share;
+                    sum += share;
+                    squares += (double) share * share;
+                }
+            }
+            double fairness = squares == 0 ? 1 : sum * sum / (perLevel * squares);
+            System.out.printf("  %s: dispatches=%d p99 wait=%d ticks, CPU share=%.1f%%, fairness=%.3f%n",
+                    priority, sorted.length, p99, 100.0 * cpu / ticks, fairness);
+        }
+        System.out.println("  throughput: " + (long) (dispatches / (elapsed / 1e9)) + " dispatches/s");
+
+        // The processes were only ever queue entries, so their threads end without running main()
+        for (UserlandProcess up : basePriority.keySet()) {
+            up.discard();
+        }
+    }
+
+    //Stress tests the sleep wheel with 100k sleepers and reports how late each one woke up
+    public static void SleeperStress() {
+        int sleepers = 100_000;
+        int maxSleepMillis = 5_000;
+        Random random = new Random(42);
+        TimingWheel<long[]> wheel = new TimingWheel<>();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < sleepers; i++) {
+            int millis = random.nextInt(maxSleepMillis);
+            long ticks = (millis + Scheduler.TICK_MILLIS - 1) / Scheduler.TICK_MILLIS;
+            wheel.schedule(new long[] {start + millis * 1_000_000L}, ticks);
+        }
+        long insertNanos = System.nanoTime() - start;
+
+        long[] jitter = new long[sleepers];
+        int[] woken = new int[1];
+        long tickNanos = Scheduler.TICK_MILLIS * 1_000_000L;
+        while (wheel.size() > 0) {
+            long nextTick = start + (wheel.getCurrentTick() + 1) * tickNanos;
+            long now;
+            while ((now = System.nanoTime()) < nextTick) {
+                LockSupport.parkNanos(nextTick - now);
+            }
+            long wokeAt = now;
+            wheel.advance(due -> jitter[woken[0]++] = wokeAt - due[0]);
+        }
+
+        Arrays.sort(jitter);
+        System.out.println("Inserted " + sleepers + " sleepers in " + insertNanos / 1_000_000 + " ms");
+        System.out.println("Wakeup jitter: p50=" + jitter[sleepers / 2] / 1_000 + " us, p99="
+                + jitter[(int) (sleepers * 0.99)] / 1_000 + " us, max=" + jitter[sleepers - 1] / 1_000 + " us");
+    }
+
+    //Compares process creation rate and resident memory at 1k, 10k and 100k processes on the selected backend
+    public static void ProcessCreationScaling() {
+        System.out.println("Backend: " + ExecutionBackend.getSelected());
+        for (int count : new int[] {1_000, 10_000, 100_000}) {
+            UserlandProcess[] processes = new UserlandProcess[count];
+            long rssBefore = residentSetKilobytes();
+            long start = System.nanoTime();
+            int created = 0;
+            try {
+                for (; created < count; created++) {
+                    processes[created] = new UserlandProcess() {
+                        @Override
+                        void main() { }
+                    };
+                }
+            } catch (OutOfMemoryError e) {
+                System.out.println("  stopped after " + created + " processes: " + e.getMessage());
+            }
+            long elapsed = System.nanoTime() - start;
+            long rssAfter = residentSetKilobytes();
+            System.out.println("  " + created + " processes: " + (long) (created / (elapsed / 1e9)) + " creations/s, RSS +"
+                    + (rssAfter - rssBefore) / 1024 + " MB");
+
+            // Let every process run its empty main so its thread exits
+            for (int i = 0; i < created; i++) {
+                processes[i].start();
+            }
+            for (int i = 0; i < created; i++) {
+                while (!processes[i].isDone()) {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    //Reads VmRSS from /proc/self/status, falling back to used heap where /proc is not available
+    private static long residentSetKilobytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) { }
+        Runtime runtime = Runtime.getRuntime();
+        return (runtime.totalMemory() - runtime.freeMemory()) / 1024;
+    }
+
+    //Reports aggregate context switches per second as the simulated core count grows
+    public static void MultiCoreThroughput() throws InterruptedException {
+        int hostCores = Runtime.getRuntime().availableProcessors();
+        for (int cores = 1; cores <= hostCores; cores *= 2) {
+            Processor[] processors = new Processor[cores];
+            for (int i = 0; i < cores; i++) {
+                processors[i] = new Processor(i, processors);
+            }
+
+            // Every process starts on core 0, the other cores have to steal their work
+            boolean[] running = {true};
+            UserlandProcess[] processes = new UserlandProcess[16 * cores];
+            for (int i = 0; i < processes.length; i++) {
+                processes[i] = new UserlandProcess() {
+                    @Override
+                    void main() {
+                        while (running[0]) {
+                            stop(); // Park until the core dispatches us again
+                        }
+                    }
+                };
+                processors[0].enqueue(processes[i]);
+            }
+
+            Thread[] drivers = new Thread[cores];
+            long deadline = System.nanoTime() + 1_000_000_000L;
+            for (int i = 0; i < cores; i++) {
+                Processor processor = processors[i];
+                drivers[i] = new Thread(() -> {
+                    while (System.nanoTime() < deadline) {
+                        processor.switchProcess();
+                    }
+                });
+                drivers[i].start();
+            }
+            for (Thread driver : drivers) {
+                driver.join();
+            }
+
+            long switches = 0;
+            for (Processor processor : processors) {
+                switches += processor.getContextSwitches();
+            }
+            System.out.println(cores + " cores: " + switches + " context switches/s");
+
+            running[0] = false;
+            for (UserlandProcess up : processes) {
+                up.start();
+            }
+        }
+    }
+
+    //Runs three real-time processes over busy background work on one core and reports their dispatch latency
+    public static void RealTimeLatency() {
+        Processor[] processors = new Processor[1];
+        Processor core = new Processor(0, processors);
+        processors[0] = core;
+        boolean[] running = {true};
+
+        // Periods of 100, 200 and 500 ms using 20% of the core each
+        int[][] tasks = {{100, 20, 100}, {200, 40, 150}, {500, 100, 500}};
+        RealTimeProcess[] realTime = new RealTimeProcess[tasks.length];
+        for (int i = 0; i < tasks.length; i++) {
+            realTime[i] = new RealTimeProcess(tasks[i][0], tasks[i][1], tasks[i][2]) {
+                @Override
+                public void main() {
+                    while (running[0]) {
+                        stop(); // Park until the core dispatches us again
+                    }
+                }
+            };
+            System.out.println("admit " + Arrays.toString(tasks[i]) + ": " + core.admit(realTime[i]));
+        }
+        RealTimeProcess overload = new RealTimeProcess(100, 60, 100);
+        System.out.println("admit [100, 60, 100]: " + core.admit(overload));
+
+        UserlandProcess[] background = new UserlandProcess[8];
+        for (int i = 0; i < background.length; i++) {
+            background[i] = new UserlandProcess() {
+                @Override
+                void main() {
+                    while (running[0]) {
+                        stop();
+                    }
+                }
+            };
+            core.enqueue(background[i]);
+        }
+
+        for (int tick = 0; tick < 100_000; tick++) {
+            core.tick();
+            UserlandProcess current = core.getCurrentProcess();
+            if (current != null && current.takeStopRequest()) {
+                core.switchProcess();
+            }
+        }
+
+        for (int i = 0; i < realTime.length; i++) {
+            RealTimeProcess rt = realTime[i];
+            System.out.println(Arrays.toString(tasks[i]) + ": jobs=" + rt.getJobsReleased() + " missed=" + rt.getMissedDeadlines()
+                    + " dispatch latency avg=" + rt.getAverageDispatchLatencyNanos() / 1000 + " us max="
+                    + rt.getMaxDispatchLatencyNanos() / 1000 + " us");
+        }
+
+        running[0] = false;
+        for (UserlandProcess up : background) {
+            up.start();
+        }
+        for (RealTimeProcess rt : realTime) {
+            rt.start();
+        }
+        overload.discard(); // Turned away, so it never runs
+    }
+
+    //Runs ten simulated minutes of three working and sleeping processes in virtual time; run it with -Dos.seed to vary the workload
+    public static void VirtualTimeScenario() throws InterruptedException {
+        System.setProperty("os.clock", "virtual");
+        if (System.getProperty("os.seed") == null) {
+            System.setProperty("os.seed", "42");
+        }
+        long simulatedMillis = 10 * 60 * 1000;
+        long[] trace = {17};
+        UserlandProcess[] workers = new UserlandProcess[3];
+
+        // Workers are created from an init process so every call happens in a deterministic order
+        UserlandProcess init = new UserlandProcess() {
+            @Override
+            void main() {
+                for (int i = 0; i < workers.length; i++) {
+                    int id = i + 1;
+                    workers[i] = new UserlandProcess() {
+                        @Override
+                        void main() {
+                            Random random = Scheduler.getRandom();
+                            while (Scheduler.currentTimeMillis() < simulatedMillis) {
+                                for (int work = random.nextInt(100); work > 0; work--) {
+                                    cooperate();
+                                }
+                                OS.sleep(10 + random.nextInt(500));
+                                trace[0] = trace[0] * 31 + id * Scheduler.currentTimeMillis();
+                            }
+                        }
+                    };
+                    OS.CreateProcess(workers[i]);
+                }
+            }
+        };
+
+        long start = System.nanoTime();
+        OS.CreateProcess(init);
+        while (!init.isDone()) {
+            Thread.sleep(1);
+        }
+        for (UserlandProcess worker : workers) {
+            while (!worker.isDone()) {
+                Thread.sleep(1);
+            }
+        }
+        System.out.println("Simulated " + Scheduler.currentTimeMillis() / 1000 + " s in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms, trace " + Long.toHexString(trace[0]));
+    }
+
+    //Runs CPU-bound and sleeping processes for two seconds, then prints the scheduler statistics
+    public static void SchedulerStatisticsReport() throws InterruptedException {
+        if (!SchedulerStatistics.ENABLED) {
+            System.out.println("Start the JVM with -Dos.stats=true to collect scheduler statistics.");
+            return;
+        }
+        long end = System.currentTimeMillis() + 2000;
+        UserlandProcess[] processes = new UserlandProcess[6];
+        for (int i = 0; i < processes.length; i++) {
+            boolean sleeper = i % 2 == 0;
+            processes[i] = new UserlandProcess() {
+                @Override
+                void main() {
+                    while (System.currentTimeMillis() < end) {
+                        if (sleeper) {
+                            OS.sleep(20); //sleeps for 20 ms
+                        } else {
+                            cooperate();
+                        }
+                    }
+                }
+            };
+            OS.CreateProcess(processes[i]);
+        }
+        for (UserlandProcess process : processes) {
+            while (!process.isDone()) {
+                Thread.sleep(10);
+            }
+        }
+        System.out.print(SchedulerStatistics.report());
+        for (int i = 0; i < processes.length; i++) {
+            System.out.println("  process " + i + (i % 2 == 0 ? " (sleeper)" : " (cpu-bound)")
+                    + " cpu " + processes[i].getCpuTimeNanos() / 1000000 + "ms, ready wait "
+                    + processes[i].getReadyWaitNanos() / 1000000 + "ms");
+        }
+    }
+
+    //Has processes on four cores allocate, fill, check and free memory at the same time to show calls do not mix up their arguments
+    public static void ConcurrentSystemCalls() throws InterruptedException {
+        System.setProperty("os.cores", "4");
+        int[] failures = new int[1];
+        UserlandProcess[] processes = new UserlandProcess[8];
+        long start = System.nanoTime();
+        for (int i = 0; i < processes.length; i++) {
+            byte id = (byte) (i + 1);
+            int size = 1024 * (1 + i % 3);
+            processes[i] = new UserlandProcess() {
+                @Override
+                void main() {
+                    for (int round = 0; round < 500; round++) {
+                        int address = OS.allocateMemory(size);
+                        for (int b = 0; b < size; b++) {
+                            Write(address + b, id);
+                        }
+                        cooperate();
+                        for (int b = 0; b < size; b++) {
+                            if (Read(address + b) != id) {
+                                synchronized (failures) {
+                                    failures[0]++;
+                                }
+                                break;
+                            }
+                        }
+                        if (!OS.freeMemory(address, size)) {
+                            synchronized (failures) {
+                                failures[0]++;
+                            }
+                        }
+                    }
+                }
+            };
+            OS.CreateProcess(processes[i]);
+        }
+        for (UserlandProcess process : processes) {
+            while (!process.isDone()) {
+                Thread.sleep(10);
+            }
+        }
+        System.out.println(processes.length * 500 * 2 + " memory calls on 4 cores in "
+                + (System.nanoTime() - start) / 1000000 + " ms, " + failures[0] + " failures");
+    }
+
+    //Benchmarks allocate/free pairs made one call per kernel switch against the same calls batched through a SyscallRing
+    public static void BatchedSystemCalls() throws InterruptedException {
+        int operations = 1 << 18;
+        int batch = 128;
+        long[] elapsed = new long[2];
+        UserlandProcess process = new UserlandProcess() {
+            @Override
+            void main() {
+                long start = System.nanoTime();
+                for (int i = 0; i < operations / 2; i++) {
+                    OS.freeMemory(OS.allocateMemory(1024), 1024);
+                }
+                elapsed[0] = System.nanoTime() - start;
+
+                SyscallRing ring = getRing();
+                int[] addresses = new int[batch];
+                start = System.nanoTime();
+                for (int done = 0; done < operations; done += 2 * batch) {
+                    for (int i = 0; i < batch; i++) {
+                        ring.prepareAllocate(1024, i);
+                    }
+                    OS.submitRing(ring);
+                    for (int i = 0; i < ring.getCompletionCount(); i++) {
+                        addresses[(int) ring.getCompletionUserData(i)] = ring.getCompletionResult(i);
+                    }
+                    ring.advance(ring.getCompletionCount());
+                    for (int i = 0; i < batch; i++) {
+                        ring.prepareFree(addresses[i], 1024, i);
+                    }
+                    OS.submitRing(ring);
+                    ring.advance(ring.getCompletionCount());
+                }
+                elapsed[1] = System.nanoTime() - start;
+            }
+        };
+        OS.CreateProcess(process);
+        while (!process.isDone()) {
+            Thread.sleep(10);
+        }
+        double direct = operations * 1e9 / elapsed[0];
+        double batched = operations * 1e9 / elapsed[1];
+        System.out.printf("one call per switch: %.0f ops/s%n", direct);
+        System.out.printf("ring, %d per submit: %.0f ops/s (%.1fx)%n", batch, batched, batched / direct);
+    }
+
+    /**
+     * Reads a seeded random device through the ring, one read per submit and then 128,
+     * and checks every byte against java.util.Random with the same seed. A read of a
+     * device id the process never opened must complete with -1 without failing the rest.
+     */
+    public static void RingDeviceReads() throws InterruptedException {
+        int reads = 1 << 16;
+        int size = 64;
+        int[] batches = {1, 128};
+        long[] elapsed = new long[batches.length];
+        int[] wrong = new int[2]; //Reads whose bytes differ, and bad ids that did not complete with -1
+        UserlandProcess process = new UserlandProcess() {
+            @Override
+            void main() {
+                SyscallRing ring = getRing();
+                for (int b = 0; b < batches.length; b++) {
+                    int device = OS.open("random 42");
+                    Random expected = new Random(42);
+                    byte[] bytes = new byte[size];
+                    long start = System.nanoTime();
+                    for (int done = 0; done < reads; done += batches[b]) {
+                        for (int i = 0; i < batches[b]; i++) {
+                            ring.prepareRead(device, size, i);
+                        }
+                        ring.prepareRead(device + 1, size, -1); // Never opened
+                        OS.submitRing(ring);
+                        for (int i = 0; i < ring.getCompletionCount(); i++) {
+                            if (ring.getCompletionUserData(i) == -1) {
+                                wrong[1] += ring.getCompletionResult(i) == -1 ? 0 : 1;
+                                continue;
+                            }
+                            expected.nextBytes(bytes);
+                            if (ring.getCompletionResult(i) != size || !Arrays.equals(bytes, (byte[]) ring.getCompletionPayload(i))) {
+                                wrong[0]++;
+                            }
+                        }
+                        ring.advance(ring.getCompletionCount());
+                    }
+                    elapsed[b] = System.nanoTime() - start;
+                    OS.close(device);
+                }
+            }
+        };
+        OS.CreateProcess(process);
+        while (!process.isDone()) {
+            Thread.sleep(10);
+        }
+        for (int b = 0; b < batches.length; b++) {
+            System.out.printf("%3d device reads per submit: %.0f reads/s%n", batches[b], reads * 1e9 / elapsed[b]);
+        }
+        System.out.println(wrong[0] + " reads returned the wrong bytes, " + wrong[1] + " reads of an unopened device did not fail");
+    }
+
+    //Microbenchmarks the round trip of a system call through the kernel thread, from a process and from a plain thread
+    public static void SystemCallRoundTrip() throws InterruptedException {
+        int calls = 100000;
+        LatencyHistogram yield = new LatencyHistogram();
+        LatencyHistogram memory = new LatencyHistogram();
+        UserlandProcess process = new UserlandProcess() {
+            @Override
+            void main() {
+                for (int round = 0; round < 2; round++) {
+                    for (int i = 0; i < calls; i++) {
+                        long start = System.nanoTime();
+                        OS.SwitchProcess(); //Nothing else is ready, so the kernel dispatches us again
+                        long switched = System.nanoTime();
+                        OS.allocateMemory(1024);
+                        if (round == 1) {
+                            yield.record(switched - start);
+                            memory.record(System.nanoTime() - switched);
+                        }
+                        OS.freeMemory(0, 1024);
+                    }
+                }
+            }
+        };
+        OS.CreateProcess(process);
+        while (!process.isDone()) {
+            Thread.sleep(10);
+        }
+
+        //Threads that are not processes own no memory, so they make a call that does nothing
+        int nothing = OS.getInstance().getSystemCalls().register("nothing", false, call -> 0);
+        LatencyHistogram thread = new LatencyHistogram();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < calls; i++) {
+                long start = System.nanoTime();
+                OS.switchToKernel(new SystemCall(nothing) { });
+                if (round == 1) {
+                    thread.record(System.nanoTime() - start);
+                }
+            }
+        }
+        System.out.println("process SwitchProcess:  " + yield);
+        System.out.println("process allocateMemory: " + memory);
+        System.out.println("thread empty call:      " + thread);
+    }
+
+    //Compares the calls answered from the published snapshot with a call that goes through the kernel thread
+    public static void FastPathSystemCalls() throws InterruptedException {
+        int calls = 1000000;
+        long[] nanos = new long[4];
+        int[] pids = new int[2];
+        class FastPathProbe extends UserlandProcess {
+            @Override
+            void main() {
+                long sink = 0;
+                for (int round = 0; round < 2; round++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < calls; i++) {
+                        sink += OS.GetPid();
+                    }
+                    long pid = System.nanoTime();
+                    for (int i = 0; i < calls; i++) {
+                        sink += OS.GetPidByName("FastPathProbe");
+                    }
+                    long byName = System.nanoTime();
+                    for (int i = 0; i < calls; i++) {
+                        sink += OS.GetTimeMillis();
+                    }
+                    long time = System.nanoTime();
+                    for (int i = 0; i < calls / 100; i++) {
+                        OS.SwitchProcess();
+                    }
+                    nanos[0] = pid - start;
+                    nanos[1] = byName - pid;
+                    nanos[2] = time - byName;
+                    nanos[3] = (System.nanoTime() - time) * 100;
+                }
+                pids[0] = OS.GetPid();
+                pids[1] = OS.GetPidByName("FastPathProbe");
+                if (sink == 42) {
+                    System.out.println();
+                }
+            }
+        }
+        UserlandProcess process = new FastPathProbe();
+        int pid = OS.CreateProcess(process);
+        while (!process.isDone()) {
+            Thread.sleep(10);
+        }
+        System.out.println("created as pid " + pid + ", GetPid() = " + pids[0]
+                + ", GetPidByName(\"FastPathProbe\") = " + pids[1]);
+        System.out.printf("GetPid:        %.1f ns/call%n", (double) nanos[0] / calls);
+        System.out.printf("GetPidByName:  %.1f ns/call%n", (double) nanos[1] / calls);
+        System.out.printf("GetTimeMillis: %.1f ns/call%n", (double) nanos[2] / calls);
+        System.out.printf("SwitchProcess: %.1f ns/call (kernel round trip)%n", (double) nanos[3] / calls);
+    }
+
+    //Registers a new system call at run time, makes some calls from a process and prints the per-call counters
+    public static void SystemCallTableReport() throws InterruptedException {
+        SystemCallTable table = OS.getInstance().getSystemCalls();
+        int queuedProcesses = table.register("queued_processes", false, call -> {
+            int queued = 0;
+            for (Processor processor : Scheduler.getProcessors()) {
+                queued += processor.getQueuedCount();
+            }
+            return queued;
+        });
+
+        UserlandProcess process = new UserlandProcess() {
+            @Override
+            void main() {
+                for (int i = 0; i < 10000; i++) {
+                    OS.switchToKernel(new SystemCall(queuedProcesses) { });
+                    int address = OS.allocateMemory(1024);
+                    OS.freeMemory(address, 1024);
+                    OS.freeMemory(address, 1024); //Already freed, counted as an error
+                }
+            }
+        };
+        OS.CreateProcess(process);
+        while (!process.isDone()) {
+            Thread.sleep(10);
+        }
+        System.out.print(table.report());
+    }
+
+    //Measures the TLB hit rate of a sequential and a random access pattern, with two processes sharing a core
+    public static void TlbHitRate() throws InterruptedException {
+        int pages = 256;
+        int accesses = 1000000;
+        long[][] counts = new long[2][2];
+        UserlandProcess[] processes = new UserlandProcess[2];
+        for (int p = 0; p < processes.length; p++) {
+            processes[p] = new UserlandProcess() {
+                @Override
+                void main() {
+                    int base = OS.allocateMemory(pages * 1024);
+                    Random random = new Random(7);
+                    for (int pattern = 0; pattern < 2; pattern++) {
+                        for (int i = 0; i < accesses; i += 10000) {
+                            //Count only this window, while the process has the core and its TLB to itself
+                            TranslationLookasideBuffer tlb = getProcessor().getTlb();
+                            long hits = tlb.getHits();
+                            long misses = tlb.getMisses();
+                            for (int j = i; j < i + 10000; j++) {
+                                int address = pattern == 0 ? j % (pages * 1024) : random.nextInt(pages * 1024);
+                                Write(base + address, (byte) j);
+                            }
+                            synchronized (counts) {
+                                counts[pattern][0] += tlb.getHits() - hits;
+                                counts[pattern][1] += tlb.getMisses() - misses;
+                            }
+                            OS.SwitchProcess(); //Let the other process use the core
+                        }
+                    }
+                }
+            };
+            OS.CreateProcess(processes[p]);
+        }
+        for (UserlandProcess process : processes) {
+            while (!process.isDone()) {
+                Thread.sleep(10);
+            }
+        }
+        String[] names = {"sequential", "random"};
+        for (int pattern = 0; pattern < 2; pattern++) {
+            System.out.printf("%-10s hits=%d misses=%d hit rate=%.2f%%%n", names[pattern], counts[pattern][0],
+                    counts[pattern][1], 100.0 * counts[pattern][0] / (counts[pattern][0] + counts[pattern][1]));
+        }
+    }
+
+    //Boots a machine with the physical memory given by -Dos.memory (and -Dos.memory.file), then measures byte access through a process
+    public static void PhysicalMemorySize() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        long size = Kernel.getMemorySize();
+        long bootMillis = (System.nanoTime() - start) / 1000000;
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        System.out.println("physical memory " + size / (1024 * 1024) + " MB, set up in " + bootMillis
+                + " ms, heap grew by " + Math.max(0, heapAfter - heapBefore) / 1024 + " KB");
+
+        Kernel.WriteMemory(size - 1, (byte) 7);
+        System.out.println("last byte at physical address " + (size - 1) + " reads back " + Kernel.ReadMemory(size - 1));
+
+        long[] nanos = new long[1];
+        int bytes = 512 * 1024;
+        UserlandProcess process = new UserlandProcess() {
+            @Override
+            void main() {
+                int base = OS.allocateMemory(bytes);
+                for (int round = 0; round < 2; round++) {
+                    long begin = System.nanoTime();
+                    for (int pass = 0; pass < 10; pass++) {
+                        for (int i = 0; i < bytes; i++) {
+                            Write(base + i, (byte) i);
+                        }
+                        for (int i = 0; i < bytes; i++) {
+                            if (Read(base + i) != (byte) i) {
+                                System.out.println("Mismatch at " + i);
+                                return;
+                            }
+                        }
+                    }
+                    nanos[0] = System.nanoTime() - begin;
+                }
+            }
+        };
+        OS.CreateProcess(process);
+        while (!process.isDone()) {
+            Thread.sleep(10);
+        }
+        System.out.printf("byte-at-a-time Read/Write: %.1f MB/s%n", 20.0 * bytes / nanos[0] * 1e9 / (1024 * 1024));
+    }
+
+    //Compares the throughput of byte-at-a-time access with the page-wise block APIs, memcpy and memset
+    public static void BulkMemoryThroughput() throws InterruptedException {
+        int bytes = 256 * 1024;
+        int passes = 20;
+        String[] names = {"byte-at-a-time write+read", "byte[] Write+Read", "ByteBuffer Write+Read", "MemoryCopy", "MemorySet"};
+        long[] nanos = new long[names.length];
+        boolean[] failed = new boolean[1];
+        UserlandProcess process = new UserlandProcess() {
+            @Override
+            void main() {
+                int base = OS.allocateMemory(2 * bytes);
+                byte[] data = new byte[bytes];
+                byte[] check = new byte[bytes];
+                new Random(3).nextBytes(data);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bytes);
+                //First round warms up the JIT, the second is timed
+                for (int round = 0; round < 2; round++) {
+                    for (int test = 0; test < names.length; test++) {
+                        long begin = System.nanoTime();
+                        for (int pass = 0; pass < passes; pass++) {
+                            switch (test) {
+                                case 0:
+                                    for (int i = 0; i < bytes; i++) {
+                                        Write(base + i, data[i]);
+                                    }
+                                    for (int i = 0; i < bytes; i++) {
+                                        check[i] = Read(base + i);
+                                    }
+                                    break;
+                                case 1:
+                                    Write(base, data, 0, bytes);
+                                    Read(base, check, 0, bytes);
+                                    break;
+                                case 2:
+                                    buffer.clear();
+                                    Write(base, buffer);
+                                    buffer.clear();
+                                    Read(base, buffer);
+                                    break;
+                                case 3:
+                                    MemoryCopy(base + bytes, base, bytes);
+                                    break;
+                                default:
+                                    MemorySet(base + bytes, (byte) pass, bytes);
+                                    break;
+                            }
+                        }
+                        nanos[test] = System.nanoTime() - begin;
+                    }
+                }
+                //memcpy across unaligned pages, then check it against the source array
+                Write(base + 100, data, 0, bytes - 100);
+                MemoryCopy(base + bytes + 7, base + 100, bytes - 100);
+                Read(base + bytes + 7, check, 0, bytes - 100);
+                failed[0] = !Arrays.equals(Arrays.copyOf(data, bytes - 100), Arrays.copyOf(check, bytes - 100));
+            }
+        };
+        OS.CreateProcess(process);
+        while (!process.isDone()) {
+            Thread.sleep(10);
+        }
+        for (int test = 0; test < names.length; test++) {
+            //Write+Read passes move every byte twice
+            double moved = (double) bytes * passes * (test < 3 ? 2 : 1);
+            System.out.printf("%-26s %10.1f MB/s%n", names[test], moved / nanos[test] * 1e9 / (1024 * 1024));
+        }
+        System.out.println(failed[0] ? "unaligned MemoryCopy corrupted data" : "unaligned MemoryCopy verified");
+    }
+
+    //Runs the same random allocate/free workload on the buddy allocator and on a first-fit scan, then reports fragmentation
+    public static void BuddyAllocatorFragmentation() {
+        int totalFrames = 1 << 18; //256 MB of 1KB frames
+        int operations = 200000;
+        for (int allocator = 0; allocator < 2; allocator++) {
+            BuddyAllocator buddy = new BuddyAllocator(totalFrames);
+            boolean[] used = new boolean[totalFrames];
+            Random random = new Random(11);
+            int[] starts = new int[operations];
+            int[] lengths = new int[operations];
+            int live = 0;
+            int usedFrames = 0;
+            int failures = 0;
+            long begin = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                //Keep memory around 80% full with mostly small blocks and the odd large one
+                if (live > 0 && (usedFrames > totalFrames * 8 / 10 || random.nextInt(3) == 0)) {
+                    int victim = random.nextInt(live);
+                    if (allocator == 0) {
+                        buddy.free(starts[victim], lengths[victim]);
+                    } else {
+                        Arrays.fill(used, starts[victim], starts[victim] + lengths[victim], false);
+                    }
+                    usedFrames -= lengths[victim];
+                    live--;
+                    starts[victim] = starts[live];
+                    lengths[victim] = lengths[live];
+                    continue;
+                }
+                int length = random.nextInt(10) == 0 ? 1 + random.nextInt(512) : 1 + random.nextInt(8);
+                int start = -1;
+                if (allocator == 0) {
+                    start = buddy.allocate(length);
+                } else {
+                    int run = 0;
+                    for (int frame = 0; frame < totalFrames; frame++) {
+                        run = used[frame] ? 0 : run + 1;
+                        if (run == length) {
+                            start = frame - length + 1;
+                            Arrays.fill(used, start, frame + 1, true);
+                            break;
+                        }
+                    }
+                }
+                if (start == -1) {
+                    failures++;
+                    continue;
+                }
+                starts[live] = start;
+                lengths[live] = length;
+                live++;
+                usedFrames += length;
+            }
+            long nanos = System.nanoTime() - begin;
+            System.out.printf("%-9s %8.0f ns/op, %d failed allocations%n", allocator == 0 ? "buddy" : "first-fit",
+                    (double) nanos / operations, failures);
+            if (allocator == 0) {
+                System.out.print(buddy.report());
+            } else {
+                int free = 0;
+                int largest = 0;
+                int run = 0;
+                for (boolean frame : used) {
+                    run = frame ? 0 : run + 1;
+                    free += frame ? 0 : 1;
+                    largest = Math.max(largest, run);
+                }
+                System.out.printf("first-fit: %d/%d frames free, largest free run %d, fragmentation %.1f%%%n",
+                        free, totalFrames, largest, 100 - 100.0 * largest / free);
+            }
+        }
+    }
+
+    //Compares single, batched and exit-sweep frame allocation on the buddy and bitmap allocators over 1M frames
+    public static void BitmapFrameAllocation() {
+        measureFrameAllocator("buddy");
+        measureFrameAllocator("bitmap");
+    }
+
+    //Times one allocator 90% full under random single-frame churn, batches of 64 and the exit sweep of a process
+    private static void measureFrameAllocator(String name) {
+        int totalFrames = 1 << 20;
+        int operations = 500000;
+        int batch = 64;
+        FrameAllocator allocator = FrameAllocator.create(name, totalFrames);
+        int[] held = new int[totalFrames];
+        int live = 0;
+        while (live < totalFrames * 9 / 10) { //Start 90% full
+            held[live++] = allocator.allocate(1);
+        }
+        Random random = new Random(5);
+        int[] frames = new int[batch];
+        long single = Long.MAX_VALUE;
+        long batched = Long.MAX_VALUE;
+        //Keep the best of several repetitions, so JIT compilation and GC do not count
+        for (int repetition = 0; repetition < 10; repetition++) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                if (random.nextBoolean()) {
+                    int victim = random.nextInt(live);
+                    allocator.free(held[victim], 1);
+                    held[victim] = held[--live];
+                } else {
+                    held[live++] = allocator.allocate(1);
+                }
+            }
+            single = Math.min(single, System.nanoTime() - begin);
+
+            begin = System.nanoTime();
+            for (int i = 0; i < operations / batch; i++) {
+                allocator.allocate(frames, batch);
+                allocator.free(frames, batch);
+            }
+            batched = Math.min(batched, System.nanoTime() - begin);
+        }
+
+        //A process that owns every other one of the held frames exits
+        FrameSet owned = new FrameSet();
+        for (int i = 0; i < live; i += 2) {
+            owned.add(held[i], 1);
+        }
+        int free = allocator.getFreeFrames();
+        long begin = System.nanoTime();
+        allocator.free(owned);
+        long sweep = System.nanoTime() - begin;
+        System.out.printf("%-6s single %5.1f ns/op, batched %5.1f ns/frame, exit sweep of %d frames %.2f ms%s%n",
+                name, (double) single / operations, (double) batched / (operations / batch * batch * 2),
+                owned.size(), sweep / 1e6, allocator.getFreeFrames() - free == owned.size() ? "" : " (lost frames)");
+        System.out.print(allocator.report());
+    }
+
+    //Runs three processes whose memory adds up to 1.5x physical memory (-Dos.memory), checking every page survives swapping
+    public static void DemandPaging() throws InterruptedException {
+        int pages = (int) (Kernel.getMemorySize() / 1024 / 2);
+        int passes = 3;
+        int[] corrupted = new int[1];
+        UserlandProcess[] processes = new UserlandProcess[3];
+        long start = System.nanoTime();
+        for (int p = 0; p < processes.length; p++) {
+            int seed = p;
+            processes[p] = new UserlandProcess() {
+                @Override
+                void main() {
+                    int base = OS.allocateMemory(pages * 1024);
+                    byte[] page = new byte[1024];
+                    byte[] check = new byte[1024];
+                    for (int pass = 0; pass < passes; pass++) {
+                        for (int i = 0; i < pages; i++) {
+                            Arrays.fill(page, (byte) (seed * 31 + pass * 7 + i));
+                            Write(base + i * 1024, page, 0, 1024);
+                            if (i % 64 == 63) {
+                                OS.SwitchProcess(); //Let the others push this process's pages out
+                            }
+                        }
+                        for (int i = 0; i < pages; i++) {
+                            Read(base + i * 1024, check, 0, 1024);
+                            if (check[0] != (byte) (seed * 31 + pass * 7 + i) || check[1023] != check[0]) {
+                                synchronized (corrupted) {
+                                    corrupted[0]++;
+                                }
+                            }
+                            if (i % 64 == 63) {
+                                OS.SwitchProcess();
+                            }
+                        }
+                    }
+                }
+            };
+            OS.CreateProcess(processes[p]);
+        }
+        for (UserlandProcess process : processes) {
+            while (!process.isDone()) {
+                Thread.sleep(10);
+            }
+        }
+        Thread.sleep(100); //Let the kernel release the address spaces
+        System.out.printf("%d processes x %d KB on %d KB of memory, %d passes in %d ms, %d corrupted pages%n",
+                processes.length, pages, Kernel.getMemorySize() / 1024, passes, (System.nanoTime() - start) / 1000000,
+                corrupted[0]);
+        System.out.print(Kernel.getPager().report());
+        System.out.println("after exit: " + Kernel.getFrameAllocator().getFreeFrames() + " frames free, "
+                + Kernel.getPager().getSwap().getUsedSlots() + " swap slots used");
+    }
+
+    /**
+     * Times every page-sized write of three processes whose memory adds up to 1.5x
+     * physical memory, so most writes fault and many need a frame reclaimed first.
+     * Run it with -Dos.pageout=direct to compare faults that evict pages themselves
+     * with faults served from the frames the page-out daemon keeps free.
+     */
+    public static void FaultLatency() throws InterruptedException {
+        int pages = (int) (Kernel.getMemorySize() / 1024 / 2);
+        int passes = 4;
+        long[][] latencies = new long[3][pages * passes];
+        UserlandProcess[] processes = new UserlandProcess[latencies.length];
+        for (int p = 0; p < processes.length; p++) {
+            long[] times = latencies[p];
+            processes[p] = new UserlandProcess() {
+                @Override
+                void main() {
+                    int base = OS.allocateMemory(pages * 1024);
+                    byte[] page = new byte[1024];
+                    for (int pass = 0; pass < passes; pass++) {
+                        for (int i = 0; i < pages; i++) {
+                            page[0] = (byte) (pass + i);
+                            long start = System.nanoTime();
+                            Write(base + i * 1024, page, 0, 1024);
+                            times[pass * pages + i] = System.nanoTime() - start;
+                            if (i % 64 == 63) {
+                                OS.SwitchProcess();
+                            }
+                        }
+                    }
+                }
+            };
+            OS.CreateProcess(processes[p]);
+        }
+        for (UserlandProcess process : processes) {
+            while (!process.isDone()) {
+                Thread.sleep(10);
+            }
+        }
+        Thread.sleep(100);
+        long[] all = new long[latencies.length * pages * passes];
+        for (int p = 0; p < latencies.length; p++) {
+            System.arraycopy(latencies[p], 0, all, p * pages * passes, pages * passes);
+        }
+        Arrays.sort(all);
+        System.out.printf("%s page-out: %d page writes, p50=%.1f us p90=%.1f us p99=%.1f us p99.9=%.1f us%n",
+                Kernel.getPager().getDaemon() == null ? "direct" : "background", all.length,
+                all[all.length / 2] / 1e3, all[(int) (all.length * 0.9)] / 1e3, all[(int) (all.length * 0.99)] / 1e3,
+                all[(int) (all.length * 0.999)] / 1e3);
+        System.out.print(Kernel.getPager().report());
+    }
+
+    /**
+     * Two processes each fill 3/4 of physical memory and then read their pages three
+     * times, first in address order and then at random pages, taking turns every 64
+     * pages. Reports the faults per MB scanned and how many of the pages brought in
+     * ahead during the scans were used. Readahead only uses free frames, which the
+     * page-out daemon reclaims from whichever process is not running. Run it with
+     * -Dos.readahead=0 to see the faults without readahead.
+     */
+    public static void ReadaheadScan() throws InterruptedException {
+        int pages = (int) (Kernel.getMemorySize() / 1024 * 3 / 4);
+        int passes = 3;
+        Pager pager = Kernel.getPager();
+        for (boolean sequential : new boolean[] {true, false}) {
+            long[] before = new long[4]; //Faults, pages brought in ahead, unused ones and the time once memory is filled
+            int[] filled = new int[1];
+            UserlandProcess[] scanners = new UserlandProcess[2];
+            for (int s = 0; s < scanners.length; s++) {
+                int seed = s;
+                scanners[s] = new UserlandProcess() {
+                    @Override
+                    void main() {
+                        int base = OS.allocateMemory(pages * 1024);
+                        byte[] page = new byte[1024];
+                        Random random = new Random(3 + seed);
+                        for (int i = 0; i < pages; i++) {
+                            page[0] = (byte) (i + seed);
+                            Write(base + i * 1024, page, 0, 1024);
+                            if (i % 64 == 63) {
+                                OS.SwitchProcess();
+                            }
+                        }
+                        synchronized (filled) {
+                            if (++filled[0] == scanners.length) {
+                                before[0] = pager.getMinorFaults() + pager.getMajorFaults();
+                                before[1] = pager.getReadaheadPages() + pager.getFaultAroundPages();
+                                before[2] = pager.getReadaheadUnused();
+                                before[3] = System.nanoTime();
+                            }
+                        }
+                        while (filled[0] < scanners.length) {
+                            OS.SwitchProcess();
+                        }
+                        for (int pass = 0; pass < passes; pass++) {
+                            for (int i = 0; i < pages; i++) {
+                                int target = sequential ? i : random.nextInt(pages);
+                                Read(base + target * 1024, page, 0, 1024);
+                                if (page[0] != (byte) (target + seed)) {
+                                    System.out.println("Page " + target + " read back wrong");
+                                }
+                                if (i % 64 == 63) {
+                                    OS.SwitchProcess();
+                                }
+                            }
+                        }
+                    }
+                };
+                OS.CreateProcess(scanners[s]);
+            }
+            for (UserlandProcess scanner : scanners) {
+                while (!scanner.isDone()) {
+                    Thread.sleep(10);
+                }
+            }
+            Thread.sleep(100); //Let the kernel release the address spaces
+            long elapsed = System.nanoTime() - before[3];
+            long faults = pager.getMinorFaults() + pager.getMajorFaults() - before[0];
+            long ahead = pager.getReadaheadPages() + pager.getFaultAroundPages() - before[1];
+            long unused = pager.getReadaheadUnused() - before[2];
+            long scanned = (long) pages * passes * scanners.length;
+            System.out.printf("%-10s %d faults over %.1f MB scanned, %.1f faults/MB, %d pages brought in ahead, %.1f%% of them used, %d ms%n",
+                    sequential ? "sequential" : "random", faults, scanned / 1024.0, faults * 1024.0 / scanned,
+                    ahead, ahead == 0 ? 0.0 : 100.0 * (ahead - unused) / ahead, elapsed / 1000000);
+        }
+        System.out.print(pager.report());
+    }
+
+    /**
+     * Pushes pages of mixed content through swap: three processes whose memory adds up
+     * to 1.5x physical memory fill their pages with text that compresses well, zeros,
+     * a single repeated byte or random bytes that do not compress, then read them back
+     * twice and check them. Prints how much swap traffic the compressed tier kept off
+     * the swap file; run it with -Dos.zswap=0 to compare without the tier.
+     */
+    public static void CompressedSwapTiers() throws InterruptedException {
+        int pages = (int) (Kernel.getMemorySize() / 1024 / 2);
+        int[] corrupted = new int[1];
+        UserlandProcess[] processes = new UserlandProcess[3];
+        long start = System.nanoTime();
+        for (int p = 0; p < processes.length; p++) {
+            int seed = p;
+            processes[p] = new UserlandProcess() {
+                @Override
+                void main() {
+                    int base = OS.allocateMemory(pages * 1024);
+                    byte[] page = new byte[1024];
+                    byte[] check = new byte[1024];
+                    for (int i = 0; i < pages; i++) {
+                        fillMixedPage(page, seed, i);
+                        Write(base + i * 1024, page, 0, 1024);
+                        if (i % 64 == 63) {
+                            OS.SwitchProcess();
+                        }
+                    }
+                    for (int pass = 0; pass < 2; pass++) {
+                        for (int i = 0; i < pages; i++) {
+                            fillMixedPage(page, seed, i);
+                            Read(base + i * 1024, check, 0, 1024);
+                            if (!Arrays.equals(page, check)) {
+                                synchronized (corrupted) {
+                                    corrupted[0]++;
+                                }
+                            }
+                            if (i % 64 == 63) {
+                                OS.SwitchProcess();
+                            }
+                        }
+                    }
+                }
+            };
+            OS.CreateProcess(processes[p]);
+        }
+        for (UserlandProcess process : processes) {
+            while (!process.isDone()) {
+                Thread.sleep(10);
+            }
+        }
+        Thread.sleep(100);
+        SwapFile swap = Kernel.getPager().getSwap();
+        System.out.printf("%d processes x %d KB of mixed pages in %d ms, %d corrupted pages, swap file in=%d KB out=%d KB%n",
+                processes.length, pages, (System.nanoTime() - start) / 1000000, corrupted[0], swap.getBytesIn() / 1024,
+                swap.getBytesOut() / 1024);
+        System.out.print(Kernel.getPager().report());
+    }
+
+    /**
+     * Forks children out of parents with heaps of growing size. Each parent fills its heap,
+     * forks three children that check every page and write to every eighth one, then
+     * writes to every fourth page itself; neither side may see the other's writes. Prints
+     * how long a fork takes against the size of the heap, which stays small as pages are
+     * shared instead of copied, and how many pages were copied on a write.
+     */
+    public static void ForkCopyOnWrite() throws InterruptedException {
+        Pager pager = Kernel.getPager();
+        int children = 3;
+        int[] corrupted = new int[1];
+        int frames = (int) (Kernel.getMemorySize() / 1024);
+        for (int heap : new int[] {frames / 16, frames / 4, frames / 2, frames * 3 / 4}) {
+            int[] base = new int[1];
+            long[] timings = new long[2]; //Nanoseconds filling the heap and forking
+            long copiesBefore = pager.getCopiesOnWrite();
+            UserlandProcess parent = new UserlandProcess() {
+                @Override
+                void main() {
+                    base[0] = OS.allocateMemory(heap * 1024);
+                    byte[] page = new byte[1024];
+                    long start = System.nanoTime();
+                    for (int i = 0; i < heap; i++) {
+                        page[0] = (byte) i;
+                        page[1] = 1;
+                        Write(base[0] + i * 1024, page, 0, 1024);
+                    }
+                    timings[0] = System.nanoTime() - start;
+                    UserlandProcess[] forked = new UserlandProcess[children];
+                    for (int c = 0; c < children; c++) {
+                        byte generation = (byte) (2 + c);
+                        forked[c] = new UserlandProcess() {
+                            @Override
+                            void main() {
+                                byte[] copy = new byte[1024];
+                                for (int i = 0; i < heap; i++) {
+                                    Read(base[0] + i * 1024, copy, 0, 1024);
+                                    if (copy[0] != (byte) i || copy[1] != 1) {
+                                        countCorrupted(corrupted);
+                                    }
+                                    if (i % 8 == 0) {
+                                        copy[1] = generation;
+                                        Write(base[0] + i * 1024, copy, 0, 1024);
+                                    }
+                                }
+                                for (int i = 0; i < heap; i += 8) {
+                                    Read(base[0] + i * 1024, copy, 0, 1024);
+                                    if (copy[1] != generation) {
+                                        countCorrupted(corrupted);
+                                    }
+                                }
+                            }
+                        };
+                        start = System.nanoTime();
+                        OS.fork(forked[c]);
+                        timings[1] += System.nanoTime() - start;
+                    }
+                    for (int i = 0; i < heap; i += 4) {
+                        page[0] = (byte) i;
+                        page[1] = 9;
+                        Write(base[0] + i * 1024, page, 0, 1024);
+                    }
+                    for (UserlandProcess child : forked) {
+                        while (!child.isDone()) {
+                            OS.sleep(10);
+                        }
+                    }
+                    for (int i = 0; i < heap; i++) {
+                        Read(base[0] + i * 1024, page, 0, 1024);
+                        if (page[0] != (byte) i || page[1] != (i % 4 == 0 ? 9 : 1)) {
+                            countCorrupted(corrupted);
+                        }
+                    }
+                }
+            };
+            OS.CreateProcess(parent);
+            while (!parent.isDone()) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100); //Let the kernel release the address spaces
+            System.out.printf("%5d KB heap: fork %6.1f us (filling the heap took %7.1f us), %d pages copied on write, %d frames free%n",
+                    heap, timings[1] / 1000.0 / children, timings[0] / 1000.0, pager.getCopiesOnWrite() - copiesBefore,
+                    pager.getFreeFrames());
+        }
+        System.out.println(corrupted[0] + " corrupted pages");
+        System.out.print(pager.report());
+    }
+
+    private static void countCorrupted(int[] corrupted) {
+        synchronized (corrupted) {
+            corrupted[0]++;
+        }
+    }
+
+    //Fills a page the same way every time: half of the pages text, then zeros, a repeated byte and random bytes
+    private static void fillMixedPage(byte[] page, int seed, int index) {
+        switch (index % 8) {
+            case 4:
+                Arrays.fill(page, (byte) 0);
+                break;
+            case 5:
+                Arrays.fill(page, (byte) (seed + index));
+                break;
+            case 6:
+            case 7:
+                new Random(seed * 100003L + index).nextBytes(page);
+                break;
+            default:
+                byte[] line = ("process " + seed + " page " + index + " of the working set; ").getBytes();
+                for (int i = 0; i < page.length; i++) {
+                    page[i] = line[i % line.length];
+                }
+        }
+    }
+
+    /**
+     * Compares the heap the page tables of many processes take with a flat array of
+     * VirtualToPhysicalMapping objects and with the packed multi-level PageTable. Each
+     * process touches 100 pages, either clustered at the bottom of its address space or
+     * scattered across all 2GB of it. Each flat array is as long as the process needs:
+     * one slot for every page up to the highest one it touches. Also times the walk a
+     * TLB miss makes through each.
+     */
+    public static void PageTableFootprint() {
+        int processes = 1000;
+        int touched = 100;
+        Random random = new Random(5);
+        for (String layout : new String[] {"clustered", "scattered"}) {
+            int[][] pages = new int[processes][touched];
+            for (int p = 0; p < processes; p++) {
+                for (int i = 0; i < touched; i++) {
+                    pages[p][i] = layout.equals("clustered") ? i : random.nextInt(PageTable.PAGES);
+                }
+            }
+            // Scattered flat arrays each come close to 2M slots, so fewer processes are enough to measure them
+            int flatProcesses = layout.equals("clustered") ? processes : 50;
+
+            long before = usedHeap();
+            VirtualToPhysicalMapping[][] flat = new VirtualToPhysicalMapping[flatProcesses][];
+            for (int p = 0; p < flatProcesses; p++) {
+                int highest = 0;
+                for (int page : pages[p]) {
+                    highest = Math.max(highest, page);
+                }
+                flat[p] = new VirtualToPhysicalMapping[highest + 1]; // A slot for every page up to the highest one used
+                for (int i = 0; i < touched; i++) {
+                    flat[p][pages[p][i]] = new VirtualToPhysicalMapping();
+                    flat[p][pages[p][i]].setPhysicalPageNumber(i);
+                }
+            }
+            long flatBytes = (usedHeap() - before) / flatProcesses;
+
+            before = usedHeap();
+            PageTable[] tables = new PageTable[processes];
+            for (int p = 0; p < processes; p++) {
+                tables[p] = new PageTable();
+                for (int i = 0; i < touched; i++) {
+                    tables[p].setFrame(pages[p][i], i);
+                }
+            }
+            long packedBytes = (usedHeap() - before) / processes;
+
+            long sum = 0;
+            long flatWalk = Long.MAX_VALUE;
+            long packedWalk = Long.MAX_VALUE;
+            for (int repeat = 0; repeat < 10; repeat++) {
+                long start = System.nanoTime();
+                for (int p = 0; p < flatProcesses; p++) {
+                    for (int page : pages[p]) {
+                        sum += flat[p][page].getPhysicalPageNumber();
+                    }
+                }
+                flatWalk = Math.min(flatWalk, (System.nanoTime() - start) / (flatProcesses * touched));
+                start = System.nanoTime();
+                for (int p = 0; p < processes; p++) {
+                    for (int page : pages[p]) {
+                        sum += tables[p].walk(page, false);
+                    }
+                }
+                packedWalk = Math.min(packedWalk, (System.nanoTime() - start) / (processes * touched));
+            }
+            System.out.printf("%-9s mapping objects %8d bytes/process, walk %d ns | packed table %6d bytes/process"
+                    + " (%d leaves), walk %d ns%s%n", layout, flatBytes, flatWalk, packedBytes,
+                    tables[0].getLeafCount(), packedWalk, sum == 0 ? " (no pages walked)" : "");
+        }
+    }
+
+    //Returns the heap in use once the garbage collector has run
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Replays address streams against every page replacement policy and prints each
+     * policy's fault rate and dirty write-backs. The built-in traces are a loop a little
+     * bigger than memory, a hot/cold mix and a hot set interrupted by one-off scans; a
+     * recorded trace can be added with -Dos.trace=file, one page number per line,
+     * followed by "w" for a write.
+     */
+    public static void PageReplacementTrace() throws IOException {
+        int frames = 1024;
+        int length = 1000000;
+        Random random = new Random(17);
+        String[] names = {"loop 1.25x", "hot/cold 80/20", "hot set + scans", "recorded"};
+        int[][] traces = new int[4][];
+        boolean[][] writes = new boolean[4][];
+        for (int t = 0; t < 3; t++) {
+            traces[t] = new int[length];
+            writes[t] = new boolean[length];
+            int scan = 100000;
+            for (int i = 0; i < length; i++) {
+                if (t == 0) {
+                    traces[t][i] = i % (frames * 5 / 4);
+                } else if (t == 1) {
+                    traces[t][i] = random.nextInt(10) < 8 ? random.nextInt(frames * 2 / 5) : frames * 2 / 5 + random.nextInt(frames * 8 / 5);
+                } else {
+                    //Three quarters of memory in steady use; every 1000 accesses a burst of 200 pages never touched again
+                    traces[t][i] = i % 1000 < 800 ? random.nextInt(frames * 3 / 4) : scan++;
+                }
+                writes[t][i] = random.nextInt(4) == 0;
+            }
+        }
+        String file = System.getProperty("os.trace");
+        if (file != null) {
+            List<String> lines = Files.readAllLines(Paths.get(file));
+            traces[3] = new int[lines.size()];
+            writes[3] = new boolean[lines.size()];
+            for (int i = 0; i < lines.size(); i++) {
+                String[] fields = lines.get(i).trim().split("\\s+");
+                traces[3][i] = Integer.parseInt(fields[0]);
+                writes[3][i] = fields.length > 1 && fields[1].equalsIgnoreCase("w");
+            }
+        }
+        System.out.printf("%-16s %-6s %10s %10s%n", "trace", "policy", "fault rate", "writebacks");
+        for (int t = 0; t < traces.length; t++) {
+            if (traces[t] == null) {
+                continue;
+            }
+            for (String policy : new String[]{"clock", "aging", "arc"}) {
+                long[] result = replay(PageReplacementPolicy.create(policy, frames), traces[t], writes[t], frames);
+                System.out.printf("%-16s %-6s %9.2f%% %10d%n", names[t], policy, 100.0 * result[0] / traces[t].length, result[1]);
+            }
+        }
+    }
+
+    //Runs one trace against a policy on a memory of the given size; returns the faults and the dirty pages evicted
+    private static long[] replay(PageReplacementPolicy policy, int[] trace, boolean[] writes, int frames) {
+        int pages = 0;
+        for (int page : trace) {
+            pages = Math.max(pages, page + 1);
+        }
+        int[] frameOf = new int[pages];
+        Arrays.fill(frameOf, -1);
+        int[] pageIn = new int[frames];
+        boolean[] referenced = new boolean[frames];
+        boolean[] dirty = new boolean[frames];
+        PageReplacementPolicy.Frames table = new PageReplacementPolicy.Frames() {
+            @Override
+            public boolean isReferenced(int frame) {
+                return referenced[frame];
+            }
+
+            @Override
+            public void clearReferenced(int frame) {
+                referenced[frame] = false;
+            }
+
+            @Override
+            public boolean isDirty(int frame) {
+                return dirty[frame];
+            }
+
+            @Override
+            public boolean isEvictable(int frame) {
+                return true;
+            }
+        };
+        long faults = 0;
+        long writebacks = 0;
+        int used = 0;
+        for (int i = 0; i < trace.length; i++) {
+            int page = trace[i];
+            int frame = frameOf[page];
+            if (frame == -1) {
+                faults++;
+                if (used < frames) {
+                    frame = used++;
+                } else {
+                    frame = policy.selectVictim(table);
+                    frameOf[pageIn[frame]] = -1;
+                    writebacks += dirty[frame] ? 1 : 0;
+                    dirty[frame] = false;
+                }
+                frameOf[page] = frame;
+                pageIn[frame] = page;
+                policy.pageIn(frame, page);
+            }
+            referenced[frame] = true;
+            dirty[frame] |= writes[i];
+        }
+        return new long[]{faults, writebacks};
+    }
+}
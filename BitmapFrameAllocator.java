@@ -0,0 +1,255 @@
+/**
+ * Frame allocator built for single-frame allocation on a large memory. One bit per
+ * frame in a long[] says whether it is free, and a summary bitmap has one bit per
+ * word saying whether that word has any free frame, so one summary word covers 4096
+ * frames and full regions are skipped 4096 frames at a time. Searches start where the
+ * last one stopped, which makes finding a free frame O(1) amortized; the frame inside
+ * a word is found with Long.numberOfTrailingZeros. Batches take or return a whole
+ * word of frames with one store. Contiguous runs are found by scanning, a word at a
+ * time, so large blocks are better served by the BuddyAllocator.
+ */
+public class BitmapFrameAllocator implements FrameAllocator {
+
+    private final int totalFrames;
+    //Bit i of word w is set when frame w * 64 + i is free
+    private final long[] free;
+    //Bit i of summary word s is set when free[s * 64 + i] has any free frame
+    private final long[] summary;
+    //Summary word the next search starts from
+    private int cursor;
+
+    private int freeFrames;
+    private long allocations;
+    private long failures;
+    private long summaryWordsScanned;
+
+    /**
+     * Creates an allocator with every frame free
+     * @param totalFrames The number of frames to manage
+     */
+    public BitmapFrameAllocator(int totalFrames) {
+        if (totalFrames <= 0) {
+            throw new IllegalArgumentException("An allocator needs at least one frame");
+        }
+        this.totalFrames = totalFrames;
+        free = new long[(totalFrames + 63) >>> 6];
+        summary = new long[(free.length + 63) >>> 6];
+        for (int word = 0; word < free.length; word++) {
+            free[word] = FrameSet.mask(0, Math.min(64, totalFrames - word * 64));
+            summary[word >>> 6] |= 1L << word;
+        }
+        freeFrames = totalFrames;
+    }
+
+    /**
+     * Allocates a run of contiguous frames; a single frame comes from the summary search
+     * @param frames The number of frames
+     * @return The first frame of the run, or -1 if no run that long is free
+     */
+    @Override
+    public int allocate(int frames) {
+        if (frames <= 0) {
+            throw new IllegalArgumentException("Cannot allocate " + frames + " frames");
+        }
+        int first = frames == 1 ? takeOne() : takeRun(frames);
+        if (first == -1) {
+            failures++;
+        } else {
+            allocations++;
+        }
+        return first;
+    }
+
+    /**
+     * Allocates a batch of single frames, taking every frame it needs from a word at once
+     * @param frames Receives the allocated frames
+     * @param count The number of frames wanted
+     * @return The number of frames allocated, short of count if memory ran out
+     */
+    @Override
+    public int allocate(int[] frames, int count) {
+        int taken = 0;
+        while (taken < count) {
+            int word = findWord();
+            if (word == -1) {
+                failures++;
+                break;
+            }
+            long bits = free[word];
+            long take = 0;
+            while (bits != 0 && taken < count) {
+                long lowest = bits & -bits;
+                frames[taken++] = word * 64 + Long.numberOfTrailingZeros(lowest);
+                take |= lowest;
+                bits ^= lowest;
+            }
+            clear(word, take);
+        }
+        allocations += taken;
+        return taken;
+    }
+
+    /**
+     * Frees a run of frames
+     * @param first The first frame of the run
+     * @param frames The number of frames
+     */
+    @Override
+    public void free(int first, int frames) {
+        if (first < 0 || frames < 0 || frames > totalFrames - first) {
+            throw new IllegalArgumentException("Frames " + first + " to " + (first + frames) + " are outside memory");
+        }
+        for (int frame = first; frame < first + frames; ) {
+            int bits = Math.min(64 - (frame & 63), first + frames - frame);
+            set(frame >>> 6, FrameSet.mask(frame & 63, bits));
+            frame += bits;
+        }
+    }
+
+    /**
+     * Frees a batch of single frames
+     * @param frames The frames to free
+     * @param count The number of frames in the batch
+     */
+    @Override
+    public void free(int[] frames, int count) {
+        for (int i = 0; i < count; i++) {
+            if (frames[i] < 0 || frames[i] >= totalFrames) {
+                throw new IllegalArgumentException("Frame " + frames[i] + " is outside memory");
+            }
+            set(frames[i] >>> 6, 1L << frames[i]);
+        }
+    }
+
+    /**
+     * Frees every frame of a set with one OR per word of it
+     * @param owned The frames to free
+     */
+    @Override
+    public void free(FrameSet owned) {
+        owned.forEachWord(this::set);
+    }
+
+    //Takes the lowest free frame of the first word with one
+    private int takeOne() {
+        int word = findWord();
+        if (word == -1) {
+            return -1;
+        }
+        long lowest = free[word] & -free[word];
+        clear(word, lowest);
+        return word * 64 + Long.numberOfTrailingZeros(lowest);
+    }
+
+    //Returns a word with a free frame, searching the summary from the cursor and wrapping once, or -1 if memory is full
+    private int findWord() {
+        if (freeFrames == 0) {
+            return -1;
+        }
+        for (int i = 0; i < summary.length; i++) {
+            int s = cursor + i < summary.length ? cursor + i : cursor + i - summary.length;
+            summaryWordsScanned++;
+            if (summary[s] != 0) {
+                cursor = s;
+                return s * 64 + Long.numberOfTrailingZeros(summary[s]);
+            }
+        }
+        return -1;
+    }
+
+    //Finds the first run of free frames that is long enough and takes it, jumping a word at a time over full and free stretches
+    private int takeRun(int frames) {
+        int frame = 0;
+        while (frame <= totalFrames - frames) {
+            int word = frame >>> 6;
+            long bits = free[word] & (-1L << frame);
+            while (bits == 0) {
+                if (++word == free.length) {
+                    return -1;
+                }
+                bits = free[word];
+            }
+            int start = word * 64 + Long.numberOfTrailingZeros(bits);
+            long used = ~free[word] & (-1L << start);
+            while (used == 0 && (word + 1) * 64 - start < frames && word + 1 < free.length) {
+                used = ~free[++word]; // The padding past the last frame reads as allocated
+            }
+            int end = used == 0 ? (word + 1) * 64 : word * 64 + Long.numberOfTrailingZeros(used);
+            if (end - start >= frames) {
+                for (frame = start; frame < start + frames; ) {
+                    int bitsInWord = Math.min(64 - (frame & 63), start + frames - frame);
+                    clear(frame >>> 6, FrameSet.mask(frame & 63, bitsInWord));
+                    frame += bitsInWord;
+                }
+                return start;
+            }
+            frame = end;
+        }
+        return -1;
+    }
+
+    //Marks frames of a word allocated, clearing the word's summary bit once it is full
+    private void clear(int word, long mask) {
+        free[word] &= ~mask;
+        freeFrames -= Long.bitCount(mask);
+        if (free[word] == 0) {
+            summary[word >>> 6] &= ~(1L << word);
+        }
+    }
+
+    //Marks frames of a word free and sets its summary bit
+    private void set(int word, long mask) {
+        if ((free[word] & mask) != 0) {
+            throw new IllegalStateException("Frame " + (word * 64 + Long.numberOfTrailingZeros(free[word] & mask))
+                    + " is already free");
+        }
+        free[word] |= mask;
+        freeFrames += Long.bitCount(mask);
+        summary[word >>> 6] |= 1L << word;
+    }
+
+    //Returns the number of frames the allocator manages
+    @Override
+    public int getTotalFrames() {
+        return totalFrames;
+    }
+
+    //Returns the number of free frames
+    @Override
+    public int getFreeFrames() {
+        return freeFrames;
+    }
+
+    //Returns the longest run of free frames, found by scanning the bitmap
+    @Override
+    public int getLargestFreeRun() {
+        int largest = 0;
+        int run = 0;
+        for (long bits : free) {
+            if (bits == -1L) {
+                run += 64;
+                continue;
+            }
+            largest = Math.max(largest, run + Long.numberOfTrailingZeros(~bits));
+            // Longest run inside the word: shrink the word by its own shift until it is empty
+            long inside = bits;
+            int length = 0;
+            while (inside != 0) {
+                inside &= inside >>> 1;
+                length++;
+            }
+            largest = Math.max(largest, length);
+            run = Long.numberOfLeadingZeros(~bits);
+        }
+        return Math.max(largest, run);
+    }
+
+    //Returns the free totals, the allocation counts and the summary words scanned per search
+    @Override
+    public String report() {
+        long searches = allocations + failures;
+        return String.format("bitmap: %d/%d frames free, largest free run %d, fragmentation %.1f%%, allocations=%d failures=%d summary words per search=%.2f%n",
+                freeFrames, totalFrames, getLargestFreeRun(), 100 * getFragmentation(), allocations, failures,
+                searches == 0 ? 0.0 : (double) summaryWordsScanned / searches);
+    }
+}
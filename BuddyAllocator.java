@@ -0,0 +1,260 @@
+import java.util.Arrays;
+
+/**
+ * Buddy-system frame allocator. Free memory is kept as blocks of 2^order frames,
+ * each aligned to its size, on one free list per order. An allocation takes the
+ * smallest block big enough and splits it in halves down to the order needed; a
+ * free merges a block with its buddy, the other half of the block they were split
+ * from, for as long as the buddy is free too. Both take O(log n).
+ * The free lists are linked through int arrays indexed by frame, so the allocator
+ * costs a few bytes per frame and creates no objects. A run that is not a power of
+ * two is cut from a bigger block and the unused tail is freed straight back. A
+ * bitmap with one bit per allocated frame catches a free of any frame that is
+ * already free, not just the first frame of a free block.
+ */
+public class BuddyAllocator implements FrameAllocator {
+
+    private static final int NONE = -1;
+    private static final byte ALLOCATED = -1;
+
+    private final int totalFrames;
+    private final int maxOrder;
+
+    //For the first frame of each free block, its order; ALLOCATED for every other frame
+    private final byte[] freeOrder;
+    //Doubly linked free lists, one per order
+    private final int[] next;
+    private final int[] previous;
+    private final int[] heads;
+    //Bit k is set when the free list of order k is non-empty, so finding a big enough block is O(1)
+    private long nonEmptyMask;
+    //Bit i of word w is set when frame w * 64 + i is allocated
+    private final long[] allocated;
+
+    private int freeFrames;
+    private long allocations;
+    private long failures;
+    private long splits;
+    private long merges;
+
+    /**
+     * Creates an allocator with every frame free
+     * @param totalFrames The number of frames to manage
+     */
+    public BuddyAllocator(int totalFrames) {
+        if (totalFrames <= 0) {
+            throw new IllegalArgumentException("An allocator needs at least one frame");
+        }
+        this.totalFrames = totalFrames;
+        this.maxOrder = 31 - Integer.numberOfLeadingZeros(totalFrames);
+        freeOrder = new byte[totalFrames];
+        next = new int[totalFrames];
+        previous = new int[totalFrames];
+        heads = new int[maxOrder + 1];
+        allocated = new long[(totalFrames + 63) >>> 6];
+        Arrays.fill(freeOrder, ALLOCATED);
+        Arrays.fill(heads, NONE);
+
+        // Cover memory with the biggest aligned blocks that fit, which also handles sizes that are not a power of two
+        int frame = 0;
+        while (frame < totalFrames) {
+            int order = frame == 0 ? maxOrder : Math.min(Integer.numberOfTrailingZeros(frame), maxOrder);
+            while (frame + (1 << order) > totalFrames) {
+                order--;
+            }
+            push(frame, order);
+            freeFrames += 1 << order;
+            frame += 1 << order;
+        }
+    }
+
+    //Returns the order of the smallest block that holds the given number of frames
+    public static int orderOf(int frames) {
+        return frames <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(frames - 1);
+    }
+
+    /**
+     * Allocates a run of contiguous frames from one buddy block
+     * @param frames The number of frames
+     * @return The first frame of the run, or -1 if no block that big is free
+     */
+    @Override
+    public int allocate(int frames) {
+        if (frames <= 0) {
+            throw new IllegalArgumentException("Cannot allocate " + frames + " frames");
+        }
+        int order = orderOf(frames);
+        int frame = order > maxOrder ? NONE : allocateBlock(order);
+        if (frame == NONE) {
+            failures++;
+            return -1;
+        }
+        allocations++;
+        freeFrames -= 1 << order;
+        markAllocated(frame, frames);
+        if (frames < 1 << order) {
+            freeRun(frame + frames, (1 << order) - frames); // Give the unused tail back
+        }
+        return frame;
+    }
+
+    /**
+     * Frees a run of frames, merging each piece with its free buddies
+     * @param first The first frame of the run
+     * @param frames The number of frames
+     * @throws IllegalStateException if any frame of the run is already free; nothing is freed then
+     */
+    @Override
+    public void free(int first, int frames) {
+        if (first < 0 || frames < 0 || frames > totalFrames - first) {
+            throw new IllegalArgumentException("Frames " + first + " to " + (first + frames) + " are outside memory");
+        }
+        markFree(first, frames);
+        freeRun(first, frames);
+    }
+
+    //Sets the allocated bits of a run
+    private void markAllocated(int first, int frames) {
+        for (int frame = first; frame < first + frames; ) {
+            int bits = Math.min(64 - (frame & 63), first + frames - frame);
+            allocated[frame >>> 6] |= FrameSet.mask(frame & 63, bits);
+            frame += bits;
+        }
+    }
+
+    //Clears the allocated bits of a run, after checking every frame of it is allocated
+    private void markFree(int first, int frames) {
+        for (int frame = first; frame < first + frames; ) {
+            int bits = Math.min(64 - (frame & 63), first + frames - frame);
+            long mask = FrameSet.mask(frame & 63, bits);
+            long alreadyFree = mask & ~allocated[frame >>> 6];
+            if (alreadyFree != 0) {
+                throw new IllegalStateException("Frame " + ((frame & ~63) + Long.numberOfTrailingZeros(alreadyFree))
+                        + " is already free");
+            }
+            frame += bits;
+        }
+        for (int frame = first; frame < first + frames; ) {
+            int bits = Math.min(64 - (frame & 63), first + frames - frame);
+            allocated[frame >>> 6] &= ~FrameSet.mask(frame & 63, bits);
+            frame += bits;
+        }
+    }
+
+    //Takes a block of exactly the given order off the free lists, splitting a bigger one if needed
+    private int allocateBlock(int order) {
+        long candidates = nonEmptyMask & (-1L << order);
+        if (candidates == 0) {
+            return NONE;
+        }
+        int found = Long.numberOfTrailingZeros(candidates);
+        int frame = heads[found];
+        unlink(frame, found);
+        while (found > order) {
+            found--;
+            push(frame + (1 << found), found); // The upper half stays free
+            splits++;
+        }
+        return frame;
+    }
+
+    //Frees a run as the biggest aligned blocks it can be cut into
+    private void freeRun(int first, int frames) {
+        int end = first + frames;
+        while (first < end) {
+            int order = Math.min(first == 0 ? maxOrder : Integer.numberOfTrailingZeros(first), maxOrder);
+            while (first + (1 << order) > end) {
+                order--;
+            }
+            freeBlock(first, order);
+            freeFrames += 1 << order;
+            first += 1 << order;
+        }
+    }
+
+    //Frees one aligned block, merging it with its buddy for as long as the buddy is free and whole
+    private void freeBlock(int frame, int order) {
+        while (order < maxOrder) {
+            int buddy = frame ^ (1 << order);
+            if (buddy + (1 << order) > totalFrames || freeOrder[buddy] != order) {
+                break;
+            }
+            unlink(buddy, order);
+            frame = Math.min(frame, buddy);
+            order++;
+            merges++;
+        }
+        push(frame, order);
+    }
+
+    //Puts a free block at the head of its list
+    private void push(int frame, int order) {
+        freeOrder[frame] = (byte) order;
+        previous[frame] = NONE;
+        next[frame] = heads[order];
+        if (heads[order] != NONE) {
+            previous[heads[order]] = frame;
+        }
+        heads[order] = frame;
+        nonEmptyMask |= 1L << order;
+    }
+
+    //Takes a free block off its list
+    private void unlink(int frame, int order) {
+        freeOrder[frame] = ALLOCATED;
+        if (previous[frame] == NONE) {
+            heads[order] = next[frame];
+        } else {
+            next[previous[frame]] = next[frame];
+        }
+        if (next[frame] != NONE) {
+            previous[next[frame]] = previous[frame];
+        }
+        if (heads[order] == NONE) {
+            nonEmptyMask &= ~(1L << order);
+        }
+    }
+
+    //Returns the number of frames the allocator manages
+    @Override
+    public int getTotalFrames() {
+        return totalFrames;
+    }
+
+    //Returns the number of free frames
+    @Override
+    public int getFreeFrames() {
+        return freeFrames;
+    }
+
+    //Returns the size of the biggest free block, the longest run one allocation can get
+    @Override
+    public int getLargestFreeRun() {
+        return nonEmptyMask == 0 ? 0 : 1 << (63 - Long.numberOfLeadingZeros(nonEmptyMask));
+    }
+
+    //Returns the number of free blocks of the given order
+    public int getFreeBlocks(int order) {
+        int count = 0;
+        for (int frame = order <= maxOrder ? heads[order] : NONE; frame != NONE; frame = next[frame]) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the free and allocated totals, the split and merge counts and the
+     * number of free blocks of each order
+     */
+    @Override
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format(
+                "buddy: %d/%d frames free, largest free block %d, fragmentation %.1f%%, allocations=%d failures=%d splits=%d merges=%d%n",
+                freeFrames, totalFrames, getLargestFreeRun(), 100 * getFragmentation(), allocations, failures, splits, merges));
+        report.append("free blocks by order:");
+        for (int order = 0; order <= maxOrder; order++) {
+            report.append(' ').append(order).append('=').append(getFreeBlocks(order));
+        }
+        return report.append(System.lineSeparator()).toString();
+    }
+}
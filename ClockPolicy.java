@@ -0,0 +1,81 @@
+/**
+ * Second-chance replacement. A hand sweeps the frames in a circle; a page whose
+ * referenced bit is set has its bit cleared and is passed over once, so only pages
+ * not touched for a whole sweep are evicted. Following the enhanced clock algorithm,
+ * the hand first looks for a page that is neither referenced nor dirty, so a victim
+ * that needs no write-back is preferred, and only then takes a dirty one. The hand
+ * usually stops after a few frames, but when every unreferenced page is dirty the
+ * clean-only round passes all of memory first, so the worst eviction is O(frames).
+ * This is the default PageReplacementPolicy.
+ */
+public class ClockPolicy implements PageReplacementPolicy {
+
+    private final boolean[] resident;
+    private int residentCount;
+    private int hand;
+
+    /**
+     * Creates a policy for a memory with no pages in it
+     * @param frames The number of frames
+     */
+    public ClockPolicy(int frames) {
+        resident = new boolean[frames];
+    }
+
+    @Override
+    public void pageIn(int frame, long page) {
+        if (!resident[frame]) {
+            resident[frame] = true;
+            residentCount++;
+        }
+    }
+
+    @Override
+    public void free(int frame) {
+        if (resident[frame]) {
+            resident[frame] = false;
+            residentCount--;
+        }
+    }
+
+    /**
+     * Sweeps from the hand. Even rounds look for an unreferenced clean page without
+     * touching any bits; odd rounds take any unreferenced page and clear the referenced
+     * bits they pass, so four rounds find a victim whenever one is evictable.
+     * @param frames The frame table
+     * @return The frame of the page to evict, or -1 if no page may be evicted
+     */
+    @Override
+    public int selectVictim(Frames frames) {
+        if (residentCount == 0) {
+            return -1;
+        }
+        for (int round = 0; round < 4; round++) {
+            boolean cleanOnly = round % 2 == 0;
+            for (int i = 0; i < resident.length; i++) {
+                int frame = hand;
+                hand = hand + 1 == resident.length ? 0 : hand + 1;
+                if (!resident[frame] || !frames.isEvictable(frame)) {
+                    continue;
+                }
+                if (frames.isReferenced(frame)) {
+                    if (!cleanOnly) {
+                        frames.clearReferenced(frame); // Second chance
+                    }
+                    continue;
+                }
+                if (cleanOnly && frames.isDirty(frame)) {
+                    continue;
+                }
+                free(frame);
+                return frame;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String getName() {
+        return "clock";
+    }
+}
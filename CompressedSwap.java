@@ -0,0 +1,186 @@
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A compressed tier of RAM in front of the SwapFile, in the manner of zswap. A page
+ * written to a swap slot is first offered here: a page filled with a single byte
+ * value, such as a zeroed one, is kept as just that byte and takes no pool space, and
+ * any other page is deflated and kept if it shrinks to at most three quarters of a
+ * page and still fits in the bounded pool. A page the tier turns down goes to the
+ * swap file as before, so the tier fills with the pages that compress and spills the
+ * rest to disk. Entries are indexed by swap slot, and reading a slot back checks the
+ * tier first. The pool size comes from the "os.zswap" system property (bytes, with an
+ * optional K, M or G suffix, a quarter of physical memory by default, 0 to turn the
+ * tier off). The tier is used by the kernel thread and the page-out daemon at once,
+ * so every method holds its lock.
+ */
+public class CompressedSwap {
+
+    private final int pageSize;
+    private final long capacity;
+
+    //Deflated pages by swap slot, null where the slot's page is not compressed here
+    private final byte[][] compressed;
+    //Fill byte plus one of the same-filled page in each slot, 0 where there is none
+    private final short[] fills;
+    private long pooled; //Bytes of compressed pages held
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final byte[] page;
+    private final byte[] output;
+
+    private long compressedStores;
+    private long sameFilledStores;
+    private long rejectedFull;
+    private long rejectedIncompressible;
+    private long loads;
+    private long storedBytes; //Uncompressed bytes of every page compressed so far
+    private long storedCompressedBytes; //What they compressed to
+
+    /**
+     * Creates an empty tier
+     * @param pageSize The size of a page
+     * @param slots The number of slots of the swap file it sits in front of
+     * @param capacity The most bytes of compressed pages it holds
+     */
+    public CompressedSwap(int pageSize, int slots, long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The compressed swap pool needs room for at least one byte: " + capacity);
+        }
+        this.pageSize = pageSize;
+        this.capacity = capacity;
+        this.compressed = new byte[slots][];
+        this.fills = new short[slots];
+        this.page = new byte[pageSize];
+        this.output = new byte[pageSize * 3 / 4];
+    }
+
+    /**
+     * Offers a page of physical memory to the tier, replacing whatever the slot held here
+     * @param memory The physical memory
+     * @param physicalAddress The address of the page
+     * @param slot The swap slot the page belongs in
+     * @return true if the tier kept the page, false if it has to go to the swap file
+     */
+    public synchronized boolean store(PhysicalMemory memory, long physicalAddress, int slot) {
+        remove(slot);
+        memory.read(physicalAddress, page, 0, pageSize);
+        if (isSameFilled()) {
+            fills[slot] = (short) ((page[0] & 0xFF) + 1);
+            sameFilledStores++;
+            return true;
+        }
+        deflater.reset();
+        deflater.setInput(page, 0, pageSize);
+        deflater.finish();
+        int length = deflater.deflate(output, 0, output.length);
+        if (!deflater.finished()) {
+            rejectedIncompressible++;
+            return false;
+        }
+        if (pooled + length > capacity) {
+            rejectedFull++;
+            return false;
+        }
+        byte[] entry = new byte[length];
+        System.arraycopy(output, 0, entry, 0, length);
+        compressed[slot] = entry;
+        pooled += length;
+        compressedStores++;
+        storedBytes += pageSize;
+        storedCompressedBytes += length;
+        return true;
+    }
+
+    //Returns true if every byte of the page buffer equals the first
+    private boolean isSameFilled() {
+        byte value = page[0];
+        for (int i = 1; i < pageSize; i++) {
+            if (page[i] != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies a slot's page back into physical memory if the tier holds it
+     * @param memory The physical memory
+     * @param physicalAddress The address of the page
+     * @param slot The swap slot
+     * @return false if the page is in the swap file instead
+     */
+    public synchronized boolean load(PhysicalMemory memory, long physicalAddress, int slot) {
+        if (fills[slot] != 0) {
+            Arrays.fill(page, (byte) (fills[slot] - 1));
+            memory.write(physicalAddress, page, 0, pageSize);
+            loads++;
+            return true;
+        }
+        byte[] entry = compressed[slot];
+        if (entry == null) {
+            return false;
+        }
+        inflater.reset();
+        inflater.setInput(entry);
+        try {
+            if (inflater.inflate(page, 0, pageSize) != pageSize) {
+                throw new IllegalStateException("Compressed swap slot " + slot + " holds a short page");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed swap slot " + slot + " is corrupt", e);
+        }
+        memory.write(physicalAddress, page, 0, pageSize);
+        loads++;
+        return true;
+    }
+
+    //Returns true if the tier holds the slot's page
+    public synchronized boolean contains(int slot) {
+        return fills[slot] != 0 || compressed[slot] != null;
+    }
+
+    //Drops the slot's page, if the tier holds it
+    public synchronized void remove(int slot) {
+        fills[slot] = 0;
+        if (compressed[slot] != null) {
+            pooled -= compressed[slot].length;
+            compressed[slot] = null;
+        }
+    }
+
+    //Returns the number of pages read back from the tier
+    public synchronized long getLoads() {
+        return loads;
+    }
+
+    //Returns the number of pages the tier took, compressed or same-filled
+    public synchronized long getStores() {
+        return compressedStores + sameFilledStores;
+    }
+
+    //Returns the number of pages the tier turned down
+    public synchronized long getRejections() {
+        return rejectedFull + rejectedIncompressible;
+    }
+
+    //Returns the bytes of compressed pages held
+    public synchronized long getPooledBytes() {
+        return pooled;
+    }
+
+    //Returns the uncompressed size of the pages compressed so far over their compressed size
+    public synchronized double getCompressionRatio() {
+        return storedCompressedBytes == 0 ? 0.0 : (double) storedBytes / storedCompressedBytes;
+    }
+
+    //Returns the pool use and store counts
+    public synchronized String report() {
+        return String.format("compressed swap: pool %d/%d KB, stores=%d compressed (%.1f:1) + %d same-filled,"
+                + " rejected %d full + %d incompressible, loads=%d%n", pooled / 1024, capacity / 1024,
+                compressedStores, getCompressionRatio(), sameFilledStores, rejectedFull, rejectedIncompressible, loads);
+    }
+}
@@ -0,0 +1,85 @@
+import java.lang.reflect.Method;
+
+/**
+ * Selects what kind of Java thread backs each UserlandProcess.
+ * PLATFORM gives every process its own OS thread. VIRTUAL runs processes on virtual
+ * threads, which unmount from their carrier while parked on the process handoff, so
+ * hundreds of thousands of simulated processes only cost a few KB each. Virtual threads
+ * are looked up reflectively so the simulator still builds on JDKs that predate them.
+ * The backend is read from the "os.backend" system property (platform | virtual).
+ */
+public enum ExecutionBackend {
+    PLATFORM, VIRTUAL;
+
+    //Thread.ofVirtual() and Thread.Builder.unstarted(Runnable), or null when the JDK has no virtual threads
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+    private static final Method UNSTARTED = findBuilderMethod();
+
+    private static volatile ExecutionBackend selected = fromProperty(System.getProperty("os.backend"));
+
+    //Returns the backend new processes are created on
+    public static ExecutionBackend getSelected() {
+        return selected;
+    }
+
+    /**
+     * Chooses the backend for processes created from now on.
+     * Falls back to PLATFORM when the running JDK has no virtual threads.
+     * @param backend The backend to use
+     */
+    public static void setSelected(ExecutionBackend backend) {
+        if (backend == VIRTUAL && !isVirtualSupported()) {
+            System.out.println("Virtual threads are not available on this JDK, using platform threads.");
+            backend = PLATFORM;
+        }
+        selected = backend;
+    }
+
+    //Returns true when the running JDK supports virtual threads
+    public static boolean isVirtualSupported() {
+        return OF_VIRTUAL != null && UNSTARTED != null;
+    }
+
+    /**
+     * Creates an unstarted thread of this kind
+     * @param task The runnable the thread executes
+     * @return The new thread
+     */
+    public Thread newThread(Runnable task) {
+        if (this == VIRTUAL && isVirtualSupported()) {
+            try {
+                return (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), task);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not create a virtual thread", e);
+            }
+        }
+        return new Thread(task);
+    }
+
+    //Parses the os.backend property, defaulting to PLATFORM
+    private static ExecutionBackend fromProperty(String value) {
+        if (value != null && value.equalsIgnoreCase("virtual")) {
+            if (isVirtualSupported()) {
+                return VIRTUAL;
+            }
+            System.out.println("Virtual threads are not available on this JDK, using platform threads.");
+        }
+        return PLATFORM;
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameters) {
+        try {
+            return type.getMethod(name, parameters);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Method findBuilderMethod() {
+        try {
+            return findMethod(Class.forName("java.lang.Thread$Builder"), "unstarted", Runnable.class);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Completely fair scheduling policy. Ready processes sit in a red-black tree ordered
+ * by virtual runtime, and the leftmost (least served) process always runs next, which
+ * makes pick-next, enqueue and steal O(log n). A process's virtual runtime grows more
+ * slowly the higher its OS.Priority weight, so CPU time is shared in proportion to
+ * weight. Each process runs for its share of SCHED_LATENCY_TICKS, but never less than
+ * MIN_GRANULARITY_TICKS, before it is preempted.
+ */
+public class FairSchedulingPolicy implements SchedulingPolicy {
+
+    //Weights per OS.Priority ordinal, matching Linux nice -5, 0 and +5
+    private static final int[] WEIGHTS = {3121, 1024, 335};
+    private static final int NICE_0_WEIGHT = 1024;
+
+    //Virtual runtime a weight-1024 process accrues per tick
+    private static final long TICK_VRUNTIME = 1_000_000L;
+
+    public static final int SCHED_LATENCY_TICKS = 24;
+    public static final int MIN_GRANULARITY_TICKS = 3;
+    private static final long WAKEUP_GRANULARITY = TICK_VRUNTIME;
+
+    private final TreeSet<UserlandProcess> tree = new TreeSet<>(
+            Comparator.comparingLong(UserlandProcess::getVirtualRuntime)
+                    .thenComparingLong(UserlandProcess::getCreationOrder));
+
+    private long minVirtualRuntime;
+    private long queuedWeight;
+
+    //Returns the weight of a priority level
+    public static int getWeight(OS.Priority priority) {
+        return WEIGHTS[priority.ordinal()];
+    }
+
+    /**
+     * Adds a process to the tree. Processes that slept or are new start at the current
+     * minimum virtual runtime so they cannot monopolise the CPU to catch up.
+     * @param up - The process to add
+     */
+    @Override
+    public void enqueue(UserlandProcess up) {
+        if (up.getVirtualRuntime() < minVirtualRuntime) {
+            up.setVirtualRuntime(minVirtualRuntime);
+        }
+        tree.add(up);
+        queuedWeight += getWeight(up.getPriority());
+    }
+
+    //Removes the process with the smallest virtual runtime
+    @Override
+    public UserlandProcess dequeue() {
+        UserlandProcess up = tree.pollFirst();
+        if (up != null) {
+            queuedWeight -= getWeight(up.getPriority());
+            minVirtualRuntime = Math.max(minVirtualRuntime, up.getVirtualRuntime());
+            up.resetQuantumTicks();
+        }
+        return up;
+    }
+
+    //Removes the process with the largest virtual runtime
+    @Override
+    public UserlandProcess stealLast() {
+        UserlandProcess up = tree.pollLast();
+        if (up != null) {
+            queuedWeight -= getWeight(up.getPriority());
+        }
+        return up;
+    }
+
+    /**
+     * Advances the running process's virtual runtime and preempts it once it has
+     * used its weighted share of the scheduling latency
+     */
+    @Override
+    public boolean tick(UserlandProcess running) {
+        if (running == null) {
+            return false;
+        }
+        int weight = getWeight(running.getPriority());
+        running.setVirtualRuntime(running.getVirtualRuntime() + TICK_VRUNTIME * NICE_0_WEIGHT / weight);
+        if (tree.isEmpty()) {
+            return false;
+        }
+        long slice = Math.max(MIN_GRANULARITY_TICKS, SCHED_LATENCY_TICKS * weight / (queuedWeight + weight));
+        return running.chargeQuantumTick() >= slice;
+    }
+
+    //Virtual runtime was already charged tick by tick, nothing more to do
+    @Override
+    public void quantumExpired(UserlandProcess up) {
+    }
+
+    //A woken process preempts when it is clearly behind the running one
+    @Override
+    public boolean preempts(UserlandProcess ready, UserlandProcess running) {
+        return ready.getVirtualRuntime() + WAKEUP_GRANULARITY < running.getVirtualRuntime();
+    }
+
+    @Override
+    public int size() {
+        return tree.size();
+    }
+}
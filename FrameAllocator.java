@@ -0,0 +1,99 @@
+/**
+ * Hands out physical page frames to the Kernel. Every allocation is a run of
+ * contiguous frames, so a large block can be backed by one run instead of a page
+ * at a time; a run may be freed in any pieces. The kernel only calls the allocator
+ * from its own thread, so implementations need no locking of their own. The
+ * allocator is chosen with the "os.frames" system property (buddy | bitmap).
+ */
+public interface FrameAllocator {
+
+    /**
+     * Allocates a run of contiguous frames
+     * @param frames The number of frames
+     * @return The first frame of the run, or -1 if no run that long is free
+     */
+    int allocate(int frames);
+
+    /**
+     * Frees a run of contiguous frames that were allocated earlier
+     * @param first The first frame of the run
+     * @param frames The number of frames
+     */
+    void free(int first, int frames);
+
+    /**
+     * Allocates single frames in a batch, which need not be contiguous
+     * @param frames Receives the allocated frames
+     * @param count The number of frames wanted
+     * @return The number of frames allocated, short of count if memory ran out
+     */
+    default int allocate(int[] frames, int count) {
+        for (int i = 0; i < count; i++) {
+            frames[i] = allocate(1);
+            if (frames[i] == -1) {
+                return i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Frees a batch of single frames
+     * @param frames The frames to free
+     * @param count The number of frames in the batch
+     */
+    default void free(int[] frames, int count) {
+        for (int i = 0; i < count; i++) {
+            free(frames[i], 1);
+        }
+    }
+
+    /**
+     * Frees every frame of a set, such as all the frames a finished process owned
+     * @param owned The frames to free
+     */
+    default void free(FrameSet owned) {
+        owned.forEachWord((word, bits) -> {
+            while (bits != 0) {
+                int start = Long.numberOfTrailingZeros(bits);
+                int length = Long.numberOfTrailingZeros(~(bits >>> start));
+                free(word * 64 + start, length);
+                bits &= ~FrameSet.mask(start, length);
+            }
+        });
+    }
+
+    //Returns the number of frames the allocator manages
+    int getTotalFrames();
+
+    //Returns the number of frames that are free
+    int getFreeFrames();
+
+    //Returns the length of the longest run of contiguous frames that can be allocated
+    int getLargestFreeRun();
+
+    //Returns the share of free memory that cannot be handed out as one run, from 0 (none) to 1
+    default double getFragmentation() {
+        int free = getFreeFrames();
+        return free == 0 ? 0 : 1.0 - (double) getLargestFreeRun() / free;
+    }
+
+    //Returns a summary of the allocator's state for reports
+    String report();
+
+    /**
+     * Creates an allocator from its name, as used by the os.frames property
+     * @param name buddy or bitmap; null picks buddy
+     * @param frames The number of frames to manage
+     * @throws IllegalArgumentException if the name is not an allocator this tree has
+     */
+    static FrameAllocator create(String name, int frames) {
+        if (name == null || name.equalsIgnoreCase("buddy")) {
+            return new BuddyAllocator(frames);
+        }
+        if (name.equalsIgnoreCase("bitmap")) {
+            return new BitmapFrameAllocator(frames);
+        }
+        throw new IllegalArgumentException("Unknown frame allocator \"" + name + "\", expected buddy or bitmap");
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.Arrays;
+
+/**
+ * A set of physical frames, kept as a bitmap of 64-frame words. The words are
+ * grouped in blocks that are only created once a frame in them is added, so a
+ * process that owns a few frames of a large memory stays small. The kernel keeps
+ * one per process to record the frames it owns, so the FrameAllocator can free
+ * all of them in one sweep, a word at a time, when the process exits.
+ */
+public class FrameSet {
+
+    //64 words, so 4096 frames, per block
+    private static final int BLOCK_SHIFT = 6;
+    private static final int BLOCK_WORDS = 1 << BLOCK_SHIFT;
+
+    /**
+     * Receives the non-empty words of a set
+     */
+    public interface WordConsumer {
+        /**
+         * @param word The word index; the word covers frames word * 64 to word * 64 + 63
+         * @param bits Bit i is set when frame word * 64 + i is in the set
+         */
+        void accept(int word, long bits);
+    }
+
+    private long[][] blocks = new long[0][];
+    private int size;
+
+    //Returns the number of frames in the set
+    public int size() {
+        return size;
+    }
+
+    //Returns true if the frame is in the set
+    public boolean contains(int frame) {
+        int word = frame >>> 6;
+        int block = word >>> BLOCK_SHIFT;
+        return block < blocks.length && blocks[block] != null
+                && (blocks[block][word & (BLOCK_WORDS - 1)] & (1L << frame)) != 0;
+    }
+
+    /**
+     * Adds a run of frames
+     * @param first The first frame
+     * @param count The number of frames
+     */
+    public void add(int first, int count) {
+        for (int frame = first; frame < first + count; ) {
+            int word = frame >>> 6;
+            int bits = Math.min(64 - (frame & 63), first + count - frame);
+            long mask = mask(frame & 63, bits);
+            long[] block = block(word >>> BLOCK_SHIFT);
+            size += Long.bitCount(mask & ~block[word & (BLOCK_WORDS - 1)]);
+            block[word & (BLOCK_WORDS - 1)] |= mask;
+            frame += bits;
+        }
+    }
+
+    /**
+     * Removes a run of frames
+     * @param first The first frame
+     * @param count The number of frames
+     */
+    public void remove(int first, int count) {
+        for (int frame = first; frame < first + count; ) {
+            int word = frame >>> 6;
+            int bits = Math.min(64 - (frame & 63), first + count - frame);
+            int block = word >>> BLOCK_SHIFT;
+            if (block < blocks.length && blocks[block] != null) {
+                long mask = mask(frame & 63, bits);
+                size -= Long.bitCount(mask & blocks[block][word & (BLOCK_WORDS - 1)]);
+                blocks[block][word & (BLOCK_WORDS - 1)] &= ~mask;
+            }
+            frame += bits;
+        }
+    }
+
+    //Hands every non-empty word to the consumer, in frame order
+    public void forEachWord(WordConsumer consumer) {
+        for (int block = 0; block < blocks.length; block++) {
+            if (blocks[block] == null) {
+                continue;
+            }
+            for (int i = 0; i < BLOCK_WORDS; i++) {
+                if (blocks[block][i] != 0) {
+                    consumer.accept((block << BLOCK_SHIFT) + i, blocks[block][i]);
+                }
+            }
+        }
+    }
+
+    //Empties the set and drops its blocks
+    public void clear() {
+        blocks = new long[0][];
+        size = 0;
+    }
+
+    //Returns the mask of count bits starting at bit start
+    static long mask(int start, int count) {
+        return count == 64 ? -1L : ((1L << count) - 1) << start;
+    }
+
+    //Returns a block, creating it and growing the block table as needed
+    private long[] block(int block) {
+        if (block >= blocks.length) {
+            blocks = Arrays.copyOf(blocks, Math.max(block + 1, blocks.length * 2));
+        }
+        if (blocks[block] == null) {
+            blocks[block] = new long[BLOCK_WORDS];
+        }
+        return blocks[block];
+    }
+}
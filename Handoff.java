@@ -0,0 +1,84 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Counting handoff between threads with a single waiter, used to pass the CPU between
+ * a process, the kernel and threads waiting on a system call. release() adds a permit
+ * and unparks the waiter; acquire() spins briefly and then parks until a permit is
+ * there. Unlike a Semaphore there is no wait queue or lock, just an atomic counter and
+ * a volatile reference to the parked thread, so a handoff costs one unpark.
+ */
+public class Handoff {
+
+    //Times acquire() re-checks for a permit before it parks
+    private static final int SPINS = 64;
+
+    private final AtomicInteger permits = new AtomicInteger();
+    private volatile Thread waiter;
+
+    /**
+     * Adds a permit and wakes the waiting thread, if any
+     */
+    public void release() {
+        permits.incrementAndGet();
+        Thread parked = waiter;
+        if (parked != null) {
+            LockSupport.unpark(parked);
+        }
+    }
+
+    /**
+     * Takes a permit, parking the calling thread until one is released
+     * @throws InterruptedException if the thread is interrupted while it waits
+     */
+    public void acquire() throws InterruptedException {
+        if (!await(true)) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Takes a permit, parking the calling thread until one is released even if it is interrupted
+     */
+    public void acquireUninterruptibly() {
+        await(false);
+    }
+
+    //Spins, then parks until a permit is taken; returns false if interrupted and interruptible
+    private boolean await(boolean interruptible) {
+        for (int i = 0; i < SPINS; i++) {
+            if (tryAcquire()) {
+                return true;
+            }
+        }
+        // Publish the waiter before re-checking, so a release either sees it or left a permit we see
+        waiter = Thread.currentThread();
+        try {
+            while (!tryAcquire()) {
+                LockSupport.park(this);
+                if (interruptible && Thread.interrupted()) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            waiter = null;
+        }
+    }
+
+    //Takes a permit if one is available
+    public boolean tryAcquire() {
+        int available;
+        while ((available = permits.get()) > 0) {
+            if (permits.compareAndSet(available, available - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Returns the number of permits not yet taken
+    public int availablePermits() {
+        return permits.get();
+    }
+}
@@ -14,9 +14,7 @@ public class HelloWorld extends UserlandProcess {
         while (true) {
             System.out.println("Hello World");
             cooperate(); //cooperates with the operating system
-            try {
-                Thread.sleep(50); //sleeps for 50 ms
-            } catch (Exception e) { }
+            OS.sleep(50); //sleeps for 50 ms
         }
     }
 }
@@ -1,12 +1,12 @@
 /**
  * Represents an idle Userland process that calls an infinite loop of
- * cooperate() and Thread.sleep(50)
+ * cooperate() and OS.sleep(50)
  * @author Matthew Welsh
  */
 public class IdleProcess extends UserlandProcess {
 
     /**
-     * Runs an infinite loop of cooperate() and Thread.sleep(50)
+     * Runs an infinite loop of cooperate() and OS.sleep(50)
      * @author Matthew Welsh
      */
     @Override
@@ -21,8 +21,6 @@ public class IdleProcess extends UserlandProcess {
 
         //For Paging Test
         cooperate(); //cooperates with the operating system
-        try {
-            Thread.sleep(50); //sleeps for 50 ms
-        } catch (Exception e) { }
+        OS.sleep(50); //sleeps for 50 ms
     }
 }
@@ -1,7 +1,9 @@
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Represents the core of the Operating system
@@ -11,23 +13,41 @@ import java.util.concurrent.Semaphore;
 public class Kernel implements Runnable, Device{
 
     /**
-     * private members to store the scheduler, the thread, and the semaphore
+     * private members to store the scheduler, the thread, and the handoff
      */
     private static Scheduler myScheduler;
     private Thread thread;
-    private Semaphore mySemaphore;
-    private static HashMap<Integer, KernelandProcess> processMap = new HashMap<>();
+    private Handoff myHandoff; //One permit per call waiting in pendingCalls
+    private final ConcurrentLinkedQueue<SystemCall> pendingCalls = new ConcurrentLinkedQueue<>();
+    private static volatile SystemCall servingCall; //The call the kernel thread is serving right now
+    private final SystemCallTable systemCalls = new SystemCallTable();
+    private static Map<Integer, KernelandProcess> processMap = new ConcurrentHashMap<>();
     private static LinkedList<KernelMessage> messageQueue = new LinkedList<>();
     private static HashMap<Integer, UserlandProcess> waitingProcesses = new HashMap<>();
 
-    // TLB array with virtual to physical mappings
-    private static final int[][] TLB = new int[2][2];
+    // Physical memory, off heap and sized by the os.memory system property (1MB by default)
+    private static final PhysicalMemory memory = new PhysicalMemory();
 
-    // Physical memory array
-    private static final byte[] memory = new byte[1024 * 1024]; // 1MB of memory
+    // Allocates the 1KB frames of physical memory; only touched under the pager's lock
+    private static final int PAGE_SIZE = 1024;
+    private static final FrameAllocator frames =
+            FrameAllocator.create(System.getProperty("os.frames"), (int) (memory.size() / PAGE_SIZE));
+
+    // Faults pages in on first touch and swaps them out when memory runs low, in the background
+    // unless the os.pageout system property is "direct". Sequential faults bring up to os.readahead
+    // more pages in with them (32 by default, 0 turns readahead off). Swap keeps the pages that compress
+    // in a pool of RAM, os.zswap bytes (a quarter of memory by default, 0 for none)
+    private static final Pager pager = new Pager(memory, frames, new SwapFile(PAGE_SIZE, memory.size() / 4),
+            PageReplacementPolicy.create(System.getProperty("os.replacement"), frames.getTotalFrames()), PAGE_SIZE,
+            !"direct".equalsIgnoreCase(System.getProperty("os.pageout")), Integer.getInteger("os.readahead", 32));
+
+    // Address space IDs for the TLB tags; IDs of finished processes are reused
+    private static int nextAsid = 1;
+    private static final int[] freeAsids = new int[TranslationLookasideBuffer.MAX_ASID];
+    private static int freeAsidCount;
 
-    private KernelandProcess kap;
     private VFS vfs;
+    private static final int VFS_ENTRIES = 100; // Devices the kernel's own VFS can have open at once
 
     private static int nextPageToWriteOut;
     private static VFS swapFileSystem;
@@ -38,15 +58,61 @@ public class Kernel implements Runnable, Device{
     }
 
     /**
-     * A constructor that initializes the scheduler, thread, and semaphore
+     * A constructor that initializes the scheduler, thread, and handoff
      */
     public Kernel() {
+        this.vfs = new VFS(VFS_ENTRIES);
         this.myScheduler = new Scheduler();
         this.thread = new Thread(this);
-        this.mySemaphore = new Semaphore(0);
+        this.myHandoff = new Handoff();
+        registerSystemCalls();
         this.thread.start();
     }
 
+    //Fills the system call table with the built-in calls
+    private void registerSystemCalls() {
+        systemCalls.register(OS.CallType.create_process, false, call -> {
+            SystemCall.CreateProcess create = (SystemCall.CreateProcess) call;
+            return myScheduler.CreateProcess(create.getProcess(), create.getPriority());
+        });
+        systemCalls.register(OS.CallType.switch_process, true, call -> {
+            myScheduler.SwitchProcess();
+            return 0;
+        });
+        systemCalls.register(OS.CallType.sleep, true, call -> {
+            myScheduler.sleep(((SystemCall.Sleep) call).getMilliseconds());
+            return 0;
+        });
+        systemCalls.register(OS.CallType.allocate_memory, false,
+                call -> AllocateMemory(call.getCaller(), ((SystemCall.AllocateMemory) call).getSize()));
+        systemCalls.register(OS.CallType.free_memory, false, call -> {
+            SystemCall.FreeMemory free = (SystemCall.FreeMemory) call;
+            return FreeMemory(call.getCaller(), free.getPointer(), free.getSize()) ? 0 : -1;
+        });
+        systemCalls.register(OS.CallType.page_fault, false,
+                call -> PageFault(call.getCaller(), ((SystemCall.PageFault) call).getVirtualPage(),
+                        ((SystemCall.PageFault) call).isWrite()));
+        systemCalls.register(OS.CallType.submit_ring, false,
+                call -> consume(call.getCaller(), ((SystemCall.SubmitRing) call).getRing()));
+        systemCalls.register(OS.CallType.open, false,
+                call -> OpenDevice(call.getCaller(), ((SystemCall.Open) call).getName()));
+        systemCalls.register(OS.CallType.close, false,
+                call -> CloseDevice(call.getCaller(), ((SystemCall.Close) call).getId()) ? 0 : -1);
+        systemCalls.register(OS.CallType.fork, false,
+                call -> Fork(call.getCaller(), ((SystemCall.Fork) call).getChild()));
+        systemCalls.register(OS.CallType.exit, true, call -> {
+            ReleaseAddressSpace(call.getCaller());
+            closeDevices(call.getCaller().getKernelandProcess());
+            removeProcess(call.getCaller().getPid(), call.getCaller().getKernelandProcess());
+            return 0;
+        });
+    }
+
+    //Accessor used to retrieve the system call table, to register new calls or read their counters
+    public SystemCallTable getSystemCalls() {
+        return systemCalls;
+    }
+
     public static void main(String[] args) {
         // Open swap file on startup
         swapFileSystem = new VFS();
@@ -55,21 +121,233 @@ public class Kernel implements Runnable, Device{
         nextPageToWriteOut = 0;
     }
 
+    // Returns the size of physical memory in bytes
+    public static long getMemorySize() {
+        return memory.size();
+    }
+
+    // Returns the allocator of physical frames, for reports
+    public static FrameAllocator getFrameAllocator() {
+        return frames;
+    }
+
+    // Returns the pager, for reports
+    public static Pager getPager() {
+        return pager;
+    }
+
     // Reads a byte from physical memory
-    public static byte ReadMemory(int physicalAddress) {
-        return memory[physicalAddress];
+    public static byte ReadMemory(long physicalAddress) {
+        return memory.read(physicalAddress);
     }
 
-    //
-    public static void WriteMemory(int physicalAddress, byte value) {
+    //Writes a byte to physical memory, reporting addresses outside of it
+    public static void WriteMemory(long physicalAddress, byte value) {
 
-        if (physicalAddress >= 0 && physicalAddress < memory.length) {
-            memory[physicalAddress] = value;
+        if (physicalAddress >= 0 && physicalAddress < memory.size()) {
+            memory.write(physicalAddress, value);
         } else {
             System.err.println("Invalid physical address: " + physicalAddress);
         }
     }
 
+    //Copies a run of bytes within one physical page into an array
+    public static void ReadMemory(long physicalAddress, byte[] destination, int offset, int length) {
+        memory.read(physicalAddress, destination, offset, length);
+    }
+
+    //Copies a run of bytes within one physical page out of an array
+    public static void WriteMemory(long physicalAddress, byte[] source, int offset, int length) {
+        memory.write(physicalAddress, source, offset, length);
+    }
+
+    //Copies a run of bytes within one physical page into a buffer
+    public static void ReadMemory(long physicalAddress, ByteBuffer destination, int length) {
+        memory.read(physicalAddress, destination, length);
+    }
+
+    //Copies a run of bytes within one physical page out of a buffer
+    public static void WriteMemory(long physicalAddress, ByteBuffer source, int length) {
+        memory.write(physicalAddress, source, length);
+    }
+
+    //Copies a run of bytes between two physical pages
+    public static void CopyMemory(long from, long to, int length) {
+        memory.copy(from, to, length);
+    }
+
+    //Sets a run of bytes within one physical page from a page-sized pattern
+    public static void FillMemory(long physicalAddress, int length, byte[] pattern) {
+        memory.fill(physicalAddress, length, pattern);
+    }
+
+    /**
+     * Allocates a block of pages in a process's address space. The virtual pages are
+     * contiguous and placed first fit; nothing backs them until the process touches
+     * them, when the Pager faults each one in.
+     * @param up The process to allocate for
+     * @param size The number of bytes, a multiple of the page size
+     * @return The virtual start address of the block, or -1 if it cannot be allocated
+     */
+    public static int AllocateMemory(UserlandProcess up, int size) {
+        int pages = size / PAGE_SIZE;
+        if (up == null || up.getKernelandProcess() == null || pages <= 0) {
+            return -1;
+        }
+        KernelandProcess kp = up.getKernelandProcess();
+        if (kp.getAsid() == 0 && !assignAsid(kp)) {
+            return -1;
+        }
+        int first = kp.findFreeVirtualPages(pages);
+        if (first == -1) {
+            return -1;
+        }
+        for (int page = first; page < first + pages; page++) {
+            kp.reservePage(page);
+        }
+        return first * PAGE_SIZE;
+    }
+
+    /**
+     * Frees a block allocated by AllocateMemory along with the frames and swap slots behind it
+     * @param up The process the block belongs to
+     * @param pointer The virtual start address of the block
+     * @param size The number of bytes to free
+     * @return false if any of the pages was not allocated
+     */
+    public static boolean FreeMemory(UserlandProcess up, int pointer, int size) {
+        if (up == null || up.getKernelandProcess() == null || pointer < 0) {
+            return false;
+        }
+        KernelandProcess kp = up.getKernelandProcess();
+        int first = pointer / PAGE_SIZE;
+        int pages = size / PAGE_SIZE;
+        for (int page = first; page < first + pages; page++) {
+            if (!kp.isAllocated(page)) {
+                return false;
+            }
+        }
+        pager.release(kp, first, pages);
+        return true;
+    }
+
+    /**
+     * Handles a page fault of a process
+     * @param up The process that touched the page
+     * @param virtualPage The page it touched
+     * @param write True if the access was a write
+     * @return The frame backing the page, or -1 if the page is not allocated or memory and swap are both full
+     */
+    public static int PageFault(UserlandProcess up, int virtualPage, boolean write) {
+        if (up == null || up.getKernelandProcess() == null) {
+            return -1;
+        }
+        return pager.fault(up.getKernelandProcess(), virtualPage, write);
+    }
+
+    /**
+     * Creates a process in a copy of a process's address space. Frames and swap slots are
+     * shared rather than copied, so a fork costs a page table walk whatever the size of the
+     * heap, and each page is copied only when parent or child first writes to it.
+     * @param up The process that forked
+     * @param child The process to run in the copy, which starts at its main()
+     * @return The child's pid, or -1 if it could not be created
+     */
+    public int Fork(UserlandProcess up, UserlandProcess child) {
+        if (up == null || up.getKernelandProcess() == null || child == null
+                || child.getKernelandProcess() != null || child instanceof RealTimeProcess) {
+            return -1;
+        }
+        KernelandProcess parent = up.getKernelandProcess();
+        return myScheduler.CreateProcess(child, up.getPriority(), kp -> {
+            if (parent.getAsid() == 0) {
+                return true; // Nothing allocated yet, so nothing to copy
+            }
+            if (!assignAsid(kp)) {
+                return false;
+            }
+            if (!pager.fork(parent, kp)) {
+                ReleaseAddressSpace(child);
+                return false;
+            }
+            return true;
+        });
+    }
+
+    //Gives a process an address space ID, reusing one released by a finished process if possible
+    private static boolean assignAsid(KernelandProcess kp) {
+        if (freeAsidCount > 0) {
+            kp.setAsid(freeAsids[--freeAsidCount]);
+        } else if (nextAsid <= TranslationLookasideBuffer.MAX_ASID) {
+            kp.setAsid(nextAsid++);
+        } else {
+            System.out.println("Out of address space IDs.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the address space of a finished process: frees every frame and swap slot
+     * it still holds and removes its translations from every core's TLB before the ASID is
+     * handed to another process.
+     * @param up The process that finished
+     */
+    public static void ReleaseAddressSpace(UserlandProcess up) {
+        KernelandProcess kp = up.getKernelandProcess();
+        if (kp == null || kp.getAsid() == 0) {
+            return;
+        }
+        pager.releaseAll(kp);
+        for (Processor processor : Scheduler.getProcessors()) {
+            processor.getTlb().invalidateAll(kp.getAsid());
+        }
+        freeAsids[freeAsidCount++] = kp.getAsid();
+        kp.setAsid(0);
+    }
+
+    /**
+     * Runs the queued entries of a process's ring and posts their completions. Device
+     * entries go through the submitting process's device table; an entry naming a device
+     * the process has not opened completes with -1 and the rest of the batch still runs.
+     * @param up The process that owns the ring
+     * @param ring The ring to consume
+     * @return The number of entries consumed
+     */
+    private int consume(UserlandProcess up, SyscallRing ring) {
+        KernelandProcess kp = up == null ? null : up.getKernelandProcess();
+        int consumed = 0;
+        while (ring.hasSubmission()) {
+            switch (ring.getOp()) {
+                case send:
+                    SendMessage((KernelMessage) ring.getPayload());
+                    ring.complete(0, null);
+                    break;
+                case read:
+                    byte[] data = readDevice(kp, ring.getFirstArgument(), ring.getSecondArgument());
+                    ring.complete(data == null ? -1 : data.length, data);
+                    break;
+                case write:
+                    ring.complete(writeDevice(kp, ring.getFirstArgument(), (byte[]) ring.getPayload()), null);
+                    break;
+                case allocate_memory:
+                    ring.complete(AllocateMemory(up, ring.getFirstArgument()), null);
+                    break;
+                case free_memory:
+                    ring.complete(FreeMemory(up, ring.getFirstArgument(), ring.getSecondArgument()) ? 0 : -1, null);
+                    break;
+            }
+            consumed++;
+        }
+        return consumed;
+    }
+
+    //Returns the process whose call the kernel is serving, or null
+    public static UserlandProcess getCaller() {
+        SystemCall call = servingCall;
+        return call == null ? null : call.getCaller();
+    }
+
     //Accessor used to retrieve the scheduler instance/
     public Scheduler getMyScheduler() {
         return myScheduler;
@@ -80,6 +358,11 @@ public class Kernel implements Runnable, Device{
         processMap.put(pid, process);
     }
 
+    //Removes a process from the message targets, unless its pid has been given to another process since
+    public static void removeProcess(int pid, KernelandProcess process) {
+        processMap.remove(pid, process);
+    }
+
     // Method to get the current process's PID
     public static int getPid() {
         return myScheduler.getCurrentProcess().getPid();
@@ -149,42 +432,24 @@ public class Kernel implements Runnable, Device{
         while (true) {
             try {
                 //System.out.println("at run in Kernel");
-                mySemaphore.acquire(); //Acquires the semaphore to allow kernel execution
-
-                switch (OS.getCurrentCall()) {
-                    case create_process:
-                        //creates a new process based on parameters
-                        myScheduler.CreateProcess((UserlandProcess) OS.getParameters().get(0));
-                        break;
-
-                    case switch_process:
-                        //switches to next process
-                        myScheduler.SwitchProcess();
-                        break;
-
-                    case sleep:
-                        //Calls sleep() in the scheduler
-                        myScheduler.sleep((Integer) OS.getParameters().get(0));
-                        break;
-
-                    case allocate_memory:
-                        int startAddress = OS.allocateMemory(1024); //debug here
-                        System.out.println(startAddress);
-                        OS.getParameters().add(startAddress);
-                        break;
-
-                    case free_memory:
-                        int pointer = (Integer) OS.getParameters().get(0);
-                        int freeSize = (Integer) OS.getParameters().get(1);
-                        boolean success = OS.freeMemory(pointer, freeSize);
-                        System.out.println("Free memory success status: " + success + " --Kernel");
-                        OS.getParameters().add(success);
-                        break;
+                myHandoff.acquire(); //Parks until a call is submitted
+
+                SystemCall call = pendingCalls.poll();
+                UserlandProcess caller = call.getCaller();
+                servingCall = call;
+                int result = systemCalls.dispatch(call); //Looks the handler up by call number
+                servingCall = null;
+                call.complete(result);
+
+                // Calls that reschedule have already started the next process, any other call
+                // hands the CPU straight back to the process that made it
+                if (caller != null && !systemCalls.reschedules(call.getNumber())) {
+                    caller.start();
                 }
-//                if (myScheduler.getCurrentProcess().getState() == UserlandProcess.ProcessState.RUNNING) {
-//                    myScheduler.getCurrentProcess().start(); //executes the current process
-//                }
-                myScheduler.getCurrentProcess().start();
+                if (SchedulerStatistics.ENABLED) {
+                    SchedulerStatistics.recordSwitchLatency(System.nanoTime() - call.getIssuedNanos());
+                }
+                Scheduler.skipIdleTime();
 
             } catch (InterruptedException e) {
                 e.printStackTrace();
@@ -193,81 +458,131 @@ public class Kernel implements Runnable, Device{
     }
 
     /**
-     * Starts the kernel by releasing the semaphore
+     * Queues a call for the kernel thread and unparks it
+     * @param call The call to serve
      */
-    public void start() {
-        mySemaphore.release();
+    public void submit(SystemCall call) {
+        pendingCalls.add(call);
+        myHandoff.release();
     }
 
     /**
-     * Opens a file in the VFS and associates it with the currently running process.
-     * @param file The name of the file to open.
-     * @return The VFS ID associated with the opened file or -1 if failed.
+     * Opens a device in the VFS into a process's device table
+     * @param up The process opening the device
+     * @param name The device and its argument, such as "random 42"
+     * @return The index in the process's device table, or -1 if the table is full or the device cannot be opened
      */
-    @Override
-    public int Open(String file) {
-        UserlandProcess currentProcess = myScheduler.getCurrentProcess();
-
-        int emptyIndex = kap.findEmptyIndex();
-
+    public int OpenDevice(UserlandProcess up, String name) {
+        KernelandProcess kp = up == null ? null : up.getKernelandProcess();
+        int emptyIndex = kp == null ? -1 : kp.findEmptyIndex();
         if (emptyIndex == -1) {
             return -1;
         }
-
-        int vfsId = vfs.Open(file);
-
+        int vfsId = vfs.Open(name);
         if (vfsId == -1) {
             return -1;
         }
-
-        kap.setData(emptyIndex, vfsId);
+        kp.setData(emptyIndex, vfsId);
         return emptyIndex;
     }
 
     /**
-     * Closes a file associated with the provided VFS ID.
-     * @param id The VFS ID associated with the file.
+     * Closes a device a process opened
+     * @param up The process
+     * @param id The index in its device table
+     * @return false if the process has no device open there
+     */
+    public boolean CloseDevice(UserlandProcess up, int id) {
+        KernelandProcess kp = up == null ? null : up.getKernelandProcess();
+        int vfsId = kp == null ? -1 : kp.getDevice(id);
+        if (vfsId == -1) {
+            return false;
+        }
+        kp.setData(id, -1);
+        vfs.Close(vfsId);
+        return true;
+    }
+
+    //Closes every device a finished process left open
+    private void closeDevices(KernelandProcess kp) {
+        if (kp == null) {
+            return;
+        }
+        for (int id = 0; id < KernelandProcess.DEVICES; id++) {
+            if (kp.getDevice(id) != -1) {
+                vfs.Close(kp.getDevice(id));
+                kp.setData(id, -1);
+            }
+        }
+    }
+
+    //Reads from a device in a process's table; returns null if it has no device open there
+    private byte[] readDevice(KernelandProcess kp, int id, int size) {
+        int vfsId = kp == null ? -1 : kp.getDevice(id);
+        return vfsId == -1 ? null : vfs.Read(vfsId, size);
+    }
+
+    //Writes to a device in a process's table; returns -1 if it has no device open there
+    private int writeDevice(KernelandProcess kp, int id, byte[] data) {
+        int vfsId = kp == null ? -1 : kp.getDevice(id);
+        return vfsId == -1 ? -1 : vfs.Write(vfsId, data);
+    }
+
+    /**
+     * Opens a device in the VFS for the process whose call the kernel is serving
+     * @param file The device and its argument, such as "random 42"
+     * @return The index in the process's device table, or -1 if failed
+     */
+    @Override
+    public int Open(String file) {
+        return OpenDevice(getCaller(), file);
+    }
+
+    /**
+     * Closes a device of the process whose call the kernel is serving
+     * @param id The index in the process's device table
      */
     @Override
     public void Close(int id) {
-        int vfsId = kap.getData(id);
-        kap.setData(id, -1);
-        vfs.Close(vfsId);
+        CloseDevice(getCaller(), id);
     }
 
     /**
-     * Reads data from a file associated with the provided VFS ID.
-     * @param id The VFS ID associated with the file.
+     * Reads from a device of the process whose call the kernel is serving
+     * @param id The index in the process's device table
      * @param size The size of data to read.
-     * @return The read data.
+     * @return The read data, or null if the process has no device open there
      */
     @Override
     public byte[] Read(int id, int size) {
-        int vfsId = kap.getData(id);
-        return vfs.Read(vfsId, size);
+        UserlandProcess up = getCaller();
+        return readDevice(up == null ? null : up.getKernelandProcess(), id, size);
     }
 
     /**
-     * Seeks to a position in a file associated with the provided VFS ID.
-     * @param id The VFS ID associated with the file.
+     * Seeks on a device of the process whose call the kernel is serving
+     * @param id The index in the process's device table
      * @param to The position to seek to.
      */
     @Override
     public void Seek(int id, int to) {
-        int vfsId = kap.getData(id);
-        vfs.Seek(vfsId, to);
+        UserlandProcess up = getCaller();
+        int vfsId = up == null || up.getKernelandProcess() == null ? -1 : up.getKernelandProcess().getDevice(id);
+        if (vfsId != -1) {
+            vfs.Seek(vfsId, to);
+        }
     }
 
     /**
-     * Writes data to a file associated with the provided VFS ID.
-     * @param id The VFS ID associated with the file.
+     * Writes to a device of the process whose call the kernel is serving
+     * @param id The index in the process's device table
      * @param data The data to write.
-     * @return The number of bytes written.
+     * @return The number of bytes written, or -1 if the process has no device open there
      */
     @Override
     public int Write(int id, byte[] data) {
-        int vfsId = kap.getData(id);
-        return vfs.Write(vfsId, data);
+        UserlandProcess up = getCaller();
+        return writeDevice(up == null ? null : up.getKernelandProcess(), id, data);
     }
 
     /**
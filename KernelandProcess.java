@@ -1,5 +1,5 @@
-import java.util.LinkedList;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  *
@@ -7,60 +7,207 @@ import java.util.Random;
  */
 public class KernelandProcess {
 
+    public static final int DEVICES = 10; // Devices a process can have open at once
+    private static final AtomicIntegerFieldUpdater<KernelandProcess> ACCESSES =
+            AtomicIntegerFieldUpdater.newUpdater(KernelandProcess.class, "accesses");
     private int[] data;
     private String name;
     private UserlandProcess ulp;
     private int pid;
     UserlandProcess.ProcessState state;
-    private static int[] pageTable;
-    private static Random random = new Random();
-    private VirtualToPhysicalMapping[] virtualToPhysicalMappings;
 
-    // Constructor that initializes the page table with -1 values
-    public KernelandProcess() {
-        this.data = new int[10];
+    // Number of pages in every process's virtual address space
+    public static final int VIRTUAL_PAGES = PageTable.PAGES;
 
-        this.pageTable = new int[100]; // Assuming 100 virtual pages
-        for (int i = 0; i < pageTable.length; i++) {
-            pageTable[i] = -1; // Set all entries to -1 (no mapping)
-        }
+    // This process's own page table, which only grows levels for the regions it uses.
+    // A page is allocated when it has an entry, whether or not a frame or swap slot backs it yet
+    private final PageTable pageTable = new PageTable();
+    private int swappedPages; // Pages that have a swap slot
+    private int asid; // Address space ID tagging this process's TLB entries, 0 until it first maps memory
+    private final FrameSet ownedFrames = new FrameSet(); // Every physical frame this process's pages use
+    private int nextSequentialFault = -1; // The page a sequential scan faults on next, just past the pages last read ahead
+    private int readaheadWindow; // Pages read ahead on the last fault, the window the next sequential fault grows from
+    private volatile int accesses; // Odd while the process's thread is between translating an address and using it
 
-        this.virtualToPhysicalMappings = new VirtualToPhysicalMapping[100];
-        for (int i = 0; i < virtualToPhysicalMappings.length; i++) {
-            virtualToPhysicalMappings[i] = new VirtualToPhysicalMapping();
-        }
+    // Constructor that initializes the device table
+    public KernelandProcess() {
+        this.data = new int[DEVICES];
     }
 
     //Initializes a KernelandProcess object with a specified UserlandProcess and process ID.
     public KernelandProcess(UserlandProcess ulp, int pid) {
         this.ulp = ulp;
-        this.name = ulp.getClass().getSimpleName();
+        this.name = ulp.getName();
         this.pid = pid;
+        this.data = new int[DEVICES];
+        Arrays.fill(data, -1); // No devices open
+    }
+
+    //Returns the page table
+    public PageTable getPageTable() {
+        return pageTable;
     }
 
     public int getPhysicalPageNumber(int virtualPageNumber) {
-        return virtualToPhysicalMappings[virtualPageNumber].getPhysicalPageNumber();
+        return PageTable.frameOf(pageTable.get(virtualPageNumber));
     }
 
     public void setPhysicalPageNumber(int virtualPageNumber, int physicalPageNumber) {
-        virtualToPhysicalMappings[virtualPageNumber].setPhysicalPageNumber(physicalPageNumber);
+        pageTable.setFrame(virtualPageNumber, physicalPageNumber);
     }
 
     public int getDiskPageNumber(int virtualPageNumber) {
-        return virtualToPhysicalMappings[virtualPageNumber].getDiskPageNumber();
+        return PageTable.slotOf(pageTable.get(virtualPageNumber));
     }
 
     public void setDiskPageNumber(int virtualPageNumber, int diskPageNumber) {
-        virtualToPhysicalMappings[virtualPageNumber].setDiskPageNumber(diskPageNumber);
+        swappedPages += (diskPageNumber != -1 ? 1 : 0) - (getDiskPageNumber(virtualPageNumber) != -1 ? 1 : 0);
+        pageTable.setSlot(virtualPageNumber, diskPageNumber);
+    }
+
+    //Returns the number of this process's pages that have a swap slot
+    public int getSwappedPages() {
+        return swappedPages;
+    }
+
+    //Returns true if the virtual page has been allocated, even if it has not been touched yet
+    public boolean isAllocated(int virtualPageNumber) {
+        return (pageTable.get(virtualPageNumber) & PageTable.ALLOCATED) != 0;
+    }
+
+    //Allocates a virtual page with nothing behind it yet; its first touch faults it in
+    public void reservePage(int virtualPageNumber) {
+        if (!isAllocated(virtualPageNumber)) {
+            pageTable.set(virtualPageNumber, PageTable.ALLOCATED);
+        }
+    }
+
+    //Frees a virtual page; the caller has already released its frame and swap slot
+    public void releasePage(int virtualPageNumber) {
+        if (getDiskPageNumber(virtualPageNumber) != -1) {
+            swappedPages--;
+        }
+        pageTable.set(virtualPageNumber, 0);
+    }
+
+    //Installs a page table entry copied from the parent's by a fork
+    public void copyPage(int virtualPageNumber, long entry) {
+        pageTable.set(virtualPageNumber, entry);
+        if (PageTable.slotOf(entry) != -1) {
+            swappedPages++;
+        }
     }
 
-    // Method to update TLB and try to find a mapping
-    public static int GetMapping(int virtualPageNumber) {
-        int tlbIndexToUpdate = random.nextInt(2);
-        int physicalPageNumber = random.nextInt(1024);
-        pageTable[virtualPageNumber] = physicalPageNumber;
+    //Drops the whole page table, once the frames and swap slots it mapped have been freed
+    public void clearMappings() {
+        pageTable.clear();
+        swappedPages = 0;
+    }
+
+    //Returns the set of physical frames this process owns
+    public FrameSet getOwnedFrames() {
+        return ownedFrames;
+    }
+
+    //Returns the page a fault has to be on to continue a sequential scan
+    public int getNextSequentialFault() {
+        return nextSequentialFault;
+    }
+
+    public void setNextSequentialFault(int virtualPageNumber) {
+        this.nextSequentialFault = virtualPageNumber;
+    }
 
-        return tlbIndexToUpdate;
+    //Returns the readahead window of the last fault
+    public int getReadaheadWindow() {
+        return readaheadWindow;
+    }
+
+    public void setReadaheadWindow(int pages) {
+        this.readaheadWindow = pages;
+    }
+
+    //Marks the start of a memory access, before the address is translated; only the process's own thread calls this
+    public void beginAccess() {
+        accesses++;
+    }
+
+    //Marks the end of a memory access, once the physical memory has been read or written; ordered after it, without a full fence
+    public void endAccess() {
+        ACCESSES.lazySet(this, accesses + 1);
+    }
+
+    /**
+     * Waits for the memory access the process's thread is making, if any, to end. This is
+     * the acknowledgement a TLB shootdown waits for: once a page's mapping has changed,
+     * only an access that translated the page before the change can still use the old
+     * frame. Accesses never block in the kernel, as a fault ends the access first, so
+     * the wait is short.
+     */
+    public void awaitAccess() {
+        int seen = accesses;
+        while ((seen & 1) != 0 && accesses == seen) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Walks the page table, called on a TLB miss
+     * @param virtualPageNumber The virtual page
+     * @return The physical page it maps to, or -1 if it is not mapped
+     */
+    public int GetMapping(int virtualPageNumber) {
+        return getPhysicalPageNumber(virtualPageNumber);
+    }
+
+    /**
+     * Walks the page table the way the MMU does on a TLB miss, marking a mapped page
+     * referenced, and dirty when the access is a write
+     * @param virtualPageNumber The virtual page
+     * @param write True for a write
+     * @return The physical page it maps to, or -1 if the access has to fault
+     */
+    public int GetMapping(int virtualPageNumber, boolean write) {
+        return pageTable.walk(virtualPageNumber, write);
+    }
+
+    //Returns true if the page was accessed since its referenced bit was last cleared
+    public boolean isReferenced(int virtualPageNumber) {
+        return (pageTable.get(virtualPageNumber) & PageTable.REFERENCED) != 0;
+    }
+
+    //Sets or clears the referenced bit of an allocated page
+    public void setReferenced(int virtualPageNumber, boolean referenced) {
+        pageTable.update(virtualPageNumber, PageTable.REFERENCED, referenced ? PageTable.REFERENCED : 0);
+    }
+
+    //Returns true if the page was written since it was last written to swap
+    public boolean isDirty(int virtualPageNumber) {
+        return (pageTable.get(virtualPageNumber) & PageTable.DIRTY) != 0;
+    }
+
+    //Sets or clears the dirty bit of an allocated page
+    public void setDirty(int virtualPageNumber, boolean dirty) {
+        pageTable.update(virtualPageNumber, PageTable.DIRTY, dirty ? PageTable.DIRTY : 0);
+    }
+
+    /**
+     * Finds the first run of unallocated virtual pages that is long enough
+     * @param pages The number of pages needed
+     * @return The first virtual page of the run, or -1 if the address space has no such gap
+     */
+    public int findFreeVirtualPages(int pages) {
+        return pageTable.findFree(pages);
+    }
+
+    //Retrieves the address space ID, 0 if none has been assigned
+    public int getAsid() {
+        return asid;
+    }
+
+    //Assigns the address space ID
+    public void setAsid(int asid) {
+        this.asid = asid;
     }
 
     //Retrieves the process ID associated with this KernelandProcess.
@@ -104,6 +251,21 @@ public class KernelandProcess {
         }
     }
 
+    //Returns the VFS ID of the device open at an index of the device table, or -1 if none is or the index is out of range
+    public int getDevice(int index) {
+        return index >= 0 && index < data.length ? data[index] : -1;
+    }
+
+    //Returns true if the process has any device open
+    public boolean hasDevices() {
+        for (int vfsId : data) {
+            if (vfsId != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Finds an empty index in the data array.
      * @return The index of the first empty slot found, or -1 if no empty slot is available.
@@ -0,0 +1,79 @@
+/**
+ * Fixed-size latency histogram with one bucket per power of two nanoseconds.
+ * Recording is a couple of array writes and never allocates, so it can sit on the
+ * dispatch path. It is not thread-safe; the owner records under its own lock.
+ */
+public class LatencyHistogram {
+
+    private final long[] buckets = new long[64];
+    private long count;
+    private long total;
+    private long max;
+
+    /**
+     * Records one sample
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[64 - Long.numberOfLeadingZeros(nanos) - (nanos == 0 ? 0 : 1)]++;
+        count++;
+        total += nanos;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    /**
+     * Adds every sample of another histogram to this one
+     * @param other The histogram to merge in
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        count += other.count;
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    //Returns the number of samples
+    public long getCount() {
+        return count;
+    }
+
+    //Returns the mean latency in nanoseconds
+    public long getMean() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    //Returns the largest latency in nanoseconds
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile
+     * @param percentile Between 0 and 100
+     * @return The top of the bucket the percentile falls in, in nanoseconds
+     */
+    public long getPercentile(double percentile) {
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(max, i == 63 ? Long.MAX_VALUE : (2L << i) - 1);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + count + " mean=" + getMean() / 1000 + "us p50=" + getPercentile(50) / 1000
+                + "us p99=" + getPercentile(99) / 1000 + "us max=" + max / 1000 + "us";
+    }
+}
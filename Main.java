@@ -11,7 +11,7 @@ public class Main {
 
 //        OS.Startup(new HelloWorld()); //Starts the operating system with HelloWorld
 //        OS.CreateProcess(new GoodbyeWorld()); //Creates a process for GoodbyeWorld
-//        new PCB(new RealTimeProcess(), OS.Priority.HIGH);
+//        OS.CreateProcess(new RealTimeProcess()); //Admitted to the EDF real-time class
 
 //        OS.Startup(new PingProcess()); // Create and start a PingProcess
 //        OS.CreateProcess(new PongProcess()); // Create and start a PongProcess
@@ -32,66 +32,79 @@ public class Main {
     }
 
     //Tests Allocating and Freeing Memory
-    public static void AllocateAndFreeMemory() {
+    public static void AllocateAndFreeMemory() throws InterruptedException {
 
         int size = 1024;
 
-        IdleProcess idleProcess = new IdleProcess();
-        OS.Startup(idleProcess);
-
-        int startVirtualAddress = OS.allocateMemory(size);
-
-        if (startVirtualAddress == -1) {
-            System.out.println("Memory allocation failed");
-        }
-
-        byte valueToWrite = 42;
-        UserlandProcess currentProcess = OS.getInstance().getMyScheduler().getCurrentProcess();
-        currentProcess.Write(startVirtualAddress, valueToWrite);
-        byte readValue = currentProcess.Read(startVirtualAddress);
-        if (readValue != valueToWrite) {
-            System.out.println("Memory read/write failed");
-            return;
-        }
-
-        boolean freed = OS.freeMemory(startVirtualAddress, size);
-
-        if (!freed) {
-            System.out.println("Memory freeing failed");
-            return;
-        }
-
-        int newVirtualAddress = OS.allocateMemory(size);
-
-        if (newVirtualAddress != startVirtualAddress) {
-            System.out.println("Memory reallocation failed");
-            return;
+        //Memory belongs to a process, so the test runs as one
+        UserlandProcess tester = new UserlandProcess() {
+            @Override
+            void main() {
+                int startVirtualAddress = OS.allocateMemory(size);
+
+                if (startVirtualAddress == -1) {
+                    System.out.println("Memory allocation failed");
+                }
+
+                byte valueToWrite = 42;
+                Write(startVirtualAddress, valueToWrite);
+                byte readValue = Read(startVirtualAddress);
+                if (readValue != valueToWrite) {
+                    System.out.println("Memory read/write failed");
+                    return;
+                }
+
+                boolean freed = OS.freeMemory(startVirtualAddress, size);
+
+                if (!freed) {
+                    System.out.println("Memory freeing failed");
+                    return;
+                }
+
+                int newVirtualAddress = OS.allocateMemory(size);
+
+                if (newVirtualAddress != startVirtualAddress) {
+                    System.out.println("Memory reallocation failed");
+                    return;
+                }
+            }
+        };
+        OS.Startup(tester);
+        while (!tester.isDone()) {
+            Thread.sleep(10);
         }
     }
 
     //Tests Reading and Writing Memory
-    public static void ReadAndWriteMemory() {
+    public static void ReadAndWriteMemory() throws InterruptedException {
         int size = 1024;
 
-        IdleProcess idleProcess = new IdleProcess();
-        OS.Startup(idleProcess);
-
-        int allocatedAddress = OS.allocateMemory(size);
-
-        byte testValue = 42;
-        System.out.println("Allocated address: " + allocatedAddress);
-        byte readValue = idleProcess.Read(allocatedAddress);
-
-        if (readValue != testValue) {
-            System.out.println("Memory read/write failed");
-            return;
-        }
-
-        boolean freed = OS.freeMemory(allocatedAddress, size);
-
-        if (!freed) {
-            System.out.println("Memory freeing failed");
-            return;
+        UserlandProcess tester = new UserlandProcess() {
+            @Override
+            void main() {
+                int allocatedAddress = OS.allocateMemory(size);
+
+                byte testValue = 42;
+                System.out.println("Allocated address: " + allocatedAddress);
+                Write(allocatedAddress, testValue);
+                byte readValue = Read(allocatedAddress);
+
+                if (readValue != testValue) {
+                    System.out.println("Memory read/write failed");
+                    return;
+                }
+
+                boolean freed = OS.freeMemory(allocatedAddress, size);
+
+                if (!freed) {
+                    System.out.println("Memory freeing failed");
+                    return;
+                }
+            }
+        };
+        OS.Startup(tester);
+        while (!tester.isDone()) {
+            Thread.sleep(10);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,26 @@
+/**
+ * Thrown into a process that touches memory it cannot use: an address it never
+ * allocated, or a page the kernel cannot back because memory and swap are both full.
+ * The fault unwinds the process's main(), and the process ends as if main() had
+ * returned, so the kernel reclaims its address space. Nothing the process does after
+ * the bad access can run on made-up data.
+ */
+public class MemoryFault extends RuntimeException {
+
+    private final int virtualAddress;
+
+    /**
+     * Creates a fault
+     * @param message What went wrong
+     * @param virtualAddress The address the process touched
+     */
+    public MemoryFault(String message, int virtualAddress) {
+        super(message + " at virtual address " + virtualAddress);
+        this.virtualAddress = virtualAddress;
+    }
+
+    //Returns the address the process touched
+    public int getVirtualAddress() {
+        return virtualAddress;
+    }
+}
@@ -0,0 +1,170 @@
+import java.util.ArrayDeque;
+
+/**
+ * Multilevel feedback queue used by the Scheduler to pick the next process.
+ * There is one array-backed deque per OS.Priority level, always served in strict
+ * priority order. Each level has its own quantum (in timer ticks); a process that
+ * burns its whole quantum is demoted one level, and every BOOST_INTERVAL ticks all
+ * ready processes are boosted back to the top level so LOW work cannot starve.
+ * This is the default SchedulingPolicy.
+ */
+public class MultilevelFeedbackQueue implements SchedulingPolicy {
+
+    //Quantum of each level in timer ticks, indexed by OS.Priority ordinal
+    private static final int[] QUANTUM_TICKS = {25, 50, 100};
+
+    //Number of timer ticks between two priority boosts
+    public static final int BOOST_INTERVAL = 1000;
+
+    private static final OS.Priority[] LEVELS = OS.Priority.values();
+
+    private final ArrayDeque<UserlandProcess>[] levels;
+
+    //Bit i is set when levels[i] is non-empty, so picking the top level is O(1)
+    private int nonEmptyMask;
+    private int size;
+    private int ticksSinceBoost;
+
+    /**
+     * Creates an empty queue with one deque per priority level
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MultilevelFeedbackQueue() {
+        levels = new ArrayDeque[LEVELS.length];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Returns the quantum of a level in timer ticks
+     * @param priority The level
+     * @return The number of ticks a process may run at that level before it is demoted
+     */
+    public static int getQuantum(OS.Priority priority) {
+        return QUANTUM_TICKS[priority.ordinal()];
+    }
+
+    /**
+     * Adds a process to the back of the queue for its current priority level
+     * @param up - The process to add
+     */
+    @Override
+    public void enqueue(UserlandProcess up) {
+        int level = up.getPriority().ordinal();
+        levels[level].addLast(up);
+        nonEmptyMask |= 1 << level;
+        size++;
+    }
+
+    /**
+     * Removes the process at the front of the highest non-empty level
+     * @return The next process to run, or null if every level is empty
+     */
+    @Override
+    public UserlandProcess dequeue() {
+        if (nonEmptyMask == 0) {
+            return null;
+        }
+        int level = Integer.numberOfTrailingZeros(nonEmptyMask);
+        UserlandProcess up = levels[level].pollFirst();
+        if (levels[level].isEmpty()) {
+            nonEmptyMask &= ~(1 << level);
+        }
+        size--;
+        return up;
+    }
+
+    /**
+     * Removes the process at the back of the lowest non-empty level, the least urgent
+     * ready process, so another core can steal it
+     * @return The stolen process, or null if every level is empty
+     */
+    @Override
+    public UserlandProcess stealLast() {
+        if (nonEmptyMask == 0) {
+            return null;
+        }
+        int level = 31 - Integer.numberOfLeadingZeros(nonEmptyMask);
+        UserlandProcess up = levels[level].pollLast();
+        if (levels[level].isEmpty()) {
+            nonEmptyMask &= ~(1 << level);
+        }
+        size--;
+        return up;
+    }
+
+    /**
+     * Charges one timer tick to the running process
+     * @param running - The process that was on the CPU when the tick fired (may be null)
+     * @return true if the running process has now used its whole quantum
+     */
+    @Override
+    public boolean tick(UserlandProcess running) {
+        if (++ticksSinceBoost >= BOOST_INTERVAL) {
+            ticksSinceBoost = 0;
+            boost(running);
+        }
+        if (running == null) {
+            return false;
+        }
+        return running.chargeQuantumTick() >= getQuantum(running.getPriority());
+    }
+
+    /**
+     * Moves a process that used its whole quantum down one level
+     * @param up - The process to demote
+     */
+    public void demote(UserlandProcess up) {
+        int level = up.getPriority().ordinal();
+        if (level < LEVELS.length - 1) {
+            up.setPriority(LEVELS[level + 1]);
+        }
+        up.resetQuantumTicks();
+    }
+
+    //A preempted process used its whole quantum, so it drops a level
+    @Override
+    public void quantumExpired(UserlandProcess up) {
+        demote(up);
+    }
+
+    //Strict priority: anything on a higher level preempts
+    @Override
+    public boolean preempts(UserlandProcess ready, UserlandProcess running) {
+        return ready.getPriority().ordinal() < running.getPriority().ordinal();
+    }
+
+    /**
+     * Moves every queued process, and the running one, back to the top level
+     * @param running - The process currently on the CPU (may be null)
+     */
+    public void boost(UserlandProcess running) {
+        ArrayDeque<UserlandProcess> top = levels[0];
+        for (int i = 1; i < levels.length; i++) {
+            UserlandProcess up;
+            while ((up = levels[i].pollFirst()) != null) {
+                up.setPriority(LEVELS[0]);
+                up.resetQuantumTicks();
+                top.addLast(up);
+            }
+        }
+        nonEmptyMask = top.isEmpty() ? 0 : 1;
+        if (running != null) {
+            running.setPriority(LEVELS[0]);
+            running.resetQuantumTicks();
+        }
+    }
+
+    //Returns the number of queued processes across all levels
+    @Override
+    public int size() {
+        return size;
+    }
+
+    //Returns true when no process is queued
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
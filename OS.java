@@ -1,7 +1,7 @@
 import jdk.nashorn.internal.codegen.CompilerConstants;
 
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Serves as the interface between the Userland process and the kernel
@@ -9,44 +9,43 @@ import java.util.HashMap;
  */
 public class OS {
 
-    //Private static members to store the parameters, the kernel instance, the return value, and the current call type
-    private static ArrayList<Object> parameters = new ArrayList<>();
+    //Private static member to store the kernel instance; each call carries its own arguments and result
     private static Kernel instance = new Kernel();
-    private static Object returnVal = 0;
-    private static CallType currentCall;
 
-    //Map to store process names and their corresponding PIDs
-    private static HashMap<String, Integer> processNameToPidMap = new HashMap<>();
+    //Map to store process names and their corresponding PIDs; written by the kernel, read lock-free by any process
+    private static ConcurrentHashMap<String, Integer> processNameToPidMap = new ConcurrentHashMap<>();
 
     // HashMap to track allocated memory blocks
     private static HashMap<Integer, Integer> allocatedMemory = new HashMap<>();
 
-    //An accessor used to retrieve the parameters list
-    public static ArrayList<Object> getParameters() {
-        return parameters;
-    }
-
-    //Retrieves the PID of the current process.
+    //Retrieves the PID of the current process from its published snapshot, without a kernel transition.
     public static int GetPid() {
-        return processNameToPidMap.getOrDefault("",-1);
+        UserlandProcess caller = UserlandProcess.getRunningProcess();
+        ProcessSnapshot snapshot = caller == null ? null : caller.getSnapshot();
+        return snapshot == null ? -1 : snapshot.getPid();
     }
 
-    //Retrieves the PID of a process by its name.
+    //Retrieves the PID of a process by its name, without a kernel transition.
     public static int GetPidByName(String name) {
         return processNameToPidMap.getOrDefault(name, -1);
     }
 
-    //Adds a process name and its corresponding PID to the map.
-    public static void addProcessName(String name, int pid) {
-        processNameToPidMap.put(name, pid);
+    //Retrieves the current simulated time in milliseconds, without a kernel transition.
+    public static long GetTimeMillis() {
+        return Scheduler.currentTimeMillis();
     }
 
+    //Adds a process name and its corresponding PID to the map; returns false and leaves the map alone if a live process has the name
+    public static boolean addProcessName(String name, int pid) {
+        return processNameToPidMap.putIfAbsent(name, pid) == null;
+    }
 
-    //An accessor used to retrieve the current call type
-    public static CallType getCurrentCall() {
-        return currentCall;
+    //Removes a process name, unless the name has been given to another PID since.
+    public static void removeProcessName(String name, int pid) {
+        processNameToPidMap.remove(name, pid);
     }
 
+
     //An accessor used to retrieve the kernel instance
     public static Kernel getInstance() {
         return instance;
@@ -55,7 +54,7 @@ public class OS {
     //An enum used to represent the different system calls
     public enum CallType {
         create_process, switch_process,
-        sleep, allocate_memory, free_memory
+        sleep, allocate_memory, free_memory, submit_ring, exit, page_fault, fork, open, close
     }
 
     //An enum used to represent the different priorities
@@ -67,7 +66,7 @@ public class OS {
     /**
      * Creates a new Userland Process
      * @param up
-     * @return returnVal - casted return val
+     * @return - The pid
      */
     public static int CreateProcess(UserlandProcess up) {
         return CreateProcess(up, Priority.INTERACTIVE);
@@ -80,29 +79,8 @@ public class OS {
      * @return - The pid
      */
     public static int CreateProcess(UserlandProcess up, Priority priority) {
-        parameters.clear();
-        parameters.add(up);
-        parameters.add(priority); // Add priority parameter
-
-        //populates the hashmap
-        if (up instanceof PingProcess) {
-            int pongPid = 3;
-            KernelandProcess kp = new KernelandProcess(up, pongPid);
-            addProcessName("PongProcess", pongPid);
-            Kernel.addProcess(kp.getPid(), kp);
-        }
-
-        if (up instanceof PongProcess) {
-            int pingPid = 2;
-            KernelandProcess kp = new KernelandProcess(up, pingPid);
-            addProcessName("PingProcess", pingPid);
-            Kernel.addProcess(kp.getPid(), kp);
-        }
-
-        currentCall = CallType.create_process;
         new PCB(up, priority);
-        switchToKernel();
-        return (int)returnVal;
+        return switchToKernel(new SystemCall.CreateProcess(up, priority));
     }
 
     /**
@@ -116,38 +94,25 @@ public class OS {
         CreateProcess(new IdleProcess());
     }
 
-    //Switches to the Kernel
-    public static void switchToKernel() {
-
-        instance.start();
-
-        //Retrieves the currently running process
-        UserlandProcess currentlyRunning = instance.getMyScheduler().getCurrentProcess();
-
-        //Stops a process if it is running
-        if (currentlyRunning != null) {
-            currentlyRunning.stop();
+    /**
+     * Switches to the Kernel. A calling process is stopped until the kernel dispatches
+     * it again; any other thread waits on the call's completion handle.
+     * @param call The call to make
+     * @return The result the kernel completed the call with
+     */
+    public static int switchToKernel(SystemCall call) {
+        instance.submit(call);
+        if (call.getCaller() != null) {
+            call.getCaller().stop();
         } else {
-
-            boolean processAvailable = false;
-            while (!processAvailable) {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e){
-                    e.printStackTrace();
-                }
-                // Check if a process has become available
-                if (instance.getMyScheduler().getCurrentProcess() != null) {
-                    processAvailable = true;
-                }
-            }
+            call.awaitCompletion();
         }
+        return call.getResult();
     }
 
-    //Sets the current call type and switches the processes
+    //Switches the processes
     public static void SwitchProcess() {
-        currentCall = CallType.switch_process;
-        switchToKernel();
+        switchToKernel(new SystemCall.SwitchProcess());
     }
 
     //Method to allocate memory
@@ -157,21 +122,11 @@ public class OS {
             return -1;
         }
 
-        parameters.clear();
-        parameters.add(size);
-        currentCall = CallType.allocate_memory;
-        switchToKernel(); //debug here
-        System.out.println("Parameter Size: " + parameters.size());
-        System.out.println("Parameters: " + parameters);
-        if (parameters.size() >= 1) {
-            Integer allocatedAddress = (Integer) parameters.get(0);
-            System.out.println("Allocated Address: " + allocatedAddress);
-            return allocatedAddress != null ? allocatedAddress: -1;
-        }
-        else {
+        int allocatedAddress = switchToKernel(new SystemCall.AllocateMemory(size));
+        if (allocatedAddress == -1) {
             System.out.println("No address was allocated.");
-            return -1;
         }
+        return allocatedAddress;
     }
 
     public static boolean freeMemory(int pointer, int size) {
@@ -179,23 +134,62 @@ public class OS {
             System.out.println("Size must be a multiple of 1024 bytes.");
             return false;
         }
-        parameters.clear();
-        parameters.add(pointer);
-        parameters.add(size);
-        currentCall = CallType.free_memory;
-        switchToKernel();
-        System.out.println(parameters);
-        boolean success = (Boolean) parameters.get(2);
-        System.out.println("Free memory success status: " + success + " --OS");
-        return Boolean.TRUE.equals(success);
+        return switchToKernel(new SystemCall.FreeMemory(pointer, size)) == 0;
+    }
+
+    /**
+     * Asks the kernel to bring a page of the calling process into memory; called on a
+     * TLB miss whose page table walk finds an allocated page with no frame behind it
+     * @param virtualPage The page that was touched
+     * @param write True if the access was a write
+     * @return The frame now backing the page, or -1 if memory and swap are both full
+     */
+    public static int pageFault(int virtualPage, boolean write) {
+        return switchToKernel(new SystemCall.PageFault(virtualPage, write));
+    }
+
+    /**
+     * Submits every queued entry of a ring with a single kernel transition
+     * @param ring The calling process's ring
+     * @return The number of entries the kernel consumed
+     */
+    public static int submitRing(SyscallRing ring) {
+        return switchToKernel(new SystemCall.SubmitRing(ring));
+    }
+
+    /**
+     * Opens a device into the calling process's device table, for ring read and write entries
+     * @param name The device and its argument, such as "random 42" for a seeded random device
+     * @return The device id, or -1 if the process's table is full or the device cannot be opened
+     */
+    public static int open(String name) {
+        return switchToKernel(new SystemCall.Open(name));
+    }
+
+    //Closes a device the calling process opened; returns false if it has no device open with that id
+    public static boolean close(int id) {
+        return switchToKernel(new SystemCall.Close(id)) == 0;
+    }
+
+    /**
+     * Forks the calling process. The child gets a copy of the caller's address space at
+     * the same addresses, shared copy-on-write, and starts at its own main(); a Java
+     * thread's stack cannot be cloned, so the child does not resume where the call was made.
+     * @param child The process to run in the copied address space
+     * @return The child's pid, or -1 if it could not be created
+     */
+    public static int fork(UserlandProcess child) {
+        return switchToKernel(new SystemCall.Fork(child));
+    }
+
+    //Tells the kernel the calling process has finished so it can release its address space; does not wait
+    public static void exit() {
+        instance.submit(new SystemCall.Exit());
     }
 
     //Puts the current process to sleep for the specified duration.
     public static void sleep(int milliseconds) {
-        parameters.clear();
-        parameters.add(milliseconds);
-        currentCall = CallType.sleep;
-        switchToKernel();
+        switchToKernel(new SystemCall.Sleep(milliseconds));
     }
 
 }
@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Background page-out for the Pager, in the manner of kswapd. When a fault takes
+ * free frames below the low watermark the daemon wakes and reclaims until the high
+ * watermark is reached, so faults under memory pressure find a free frame instead of
+ * evicting one themselves. Clean victims are dropped on the spot, since swap or the
+ * zero page already holds their contents. Dirty victims are write-protected and
+ * written out in a batch: the batch is sorted by swap slot, each page is offered to
+ * the compressed swap tier, and runs of neighbouring slots the tier turned down are
+ * gathered into one buffer, each going to the swap file in a single positioned write
+ * through its FileChannel. Compressing off the fault path is another thing the daemon
+ * takes off faulting processes. Only the choice of victims and the frame
+ * table updates hold the pager's lock; the copying and the writes do not. The daemon
+ * reclaims from running processes too, a lone process that outgrows memory included:
+ * a page stays write-protected while it is written, so a write to it faults, marks it
+ * dirty again and keeps it in memory.
+ */
+public class PageOutDaemon implements Runnable {
+
+    private final Pager pager;
+    private final int lowWatermark;
+    private final int highWatermark;
+
+    //Batch entries, each a swap slot in the high half and a frame in the low half, so sorting orders them by slot
+    private final long[] batch;
+    private final boolean[] compressed; //Set for the batch entries the compressed tier took
+    private final ByteBuffer staging;
+    private final Handoff wakeup = new Handoff();
+    private Thread thread;
+
+    private volatile long wakeups;
+    private volatile long batches;
+    private volatile long writes;
+    private volatile long pagesWritten;
+
+    /**
+     * Creates the daemon; its thread starts the first time it is woken
+     * @param pager The pager it reclaims frames for
+     * @param totalFrames The number of frames of physical memory
+     * @param pageSize The size of a page
+     */
+    public PageOutDaemon(Pager pager, int totalFrames, int pageSize) {
+        this.pager = pager;
+        this.lowWatermark = Math.max(4, totalFrames / 32);
+        this.highWatermark = Math.min(totalFrames, 2 * lowWatermark);
+        this.batch = new long[highWatermark];
+        this.compressed = new boolean[highWatermark];
+        this.staging = ByteBuffer.allocateDirect(highWatermark * pageSize);
+    }
+
+    //Returns the number of free frames below which the daemon is woken
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    //Returns the number of free frames the daemon reclaims up to
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Asks the daemon to reclaim frames, starting its thread if this is the first request
+     */
+    public synchronized void wake() {
+        if (thread == null) {
+            thread = new Thread(this, "pageout");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        wakeup.release();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            wakeup.acquireUninterruptibly();
+            while (wakeup.tryAcquire()) {
+                // Wakeups that arrived while the last round ran are served by this one
+            }
+            wakeups++;
+            while (pager.getFreeFrames() < highWatermark) {
+                int count = pager.startWriteBack(batch, highWatermark);
+                if (count == 0) {
+                    break; // Clean drops were enough, or nothing may be evicted right now
+                }
+                pager.finishWriteBack(batch, count, write(count));
+                batches++;
+                pagesWritten += count;
+            }
+        }
+    }
+
+    //Writes the batch out in slot order, one write per run of neighbouring slots; returns false if a write failed
+    private boolean write(int count) {
+        Arrays.sort(batch, 0, count);
+        for (int i = 0; i < count; i++) {
+            compressed[i] = pager.compressOut(frameOf(batch[i]), slotOf(batch[i]));
+        }
+        boolean written = true;
+        int start = 0;
+        while (start < count) {
+            if (compressed[start]) {
+                start++;
+                continue;
+            }
+            int end = start + 1;
+            while (end < count && !compressed[end] && slotOf(batch[end]) == slotOf(batch[end - 1]) + 1) {
+                end++;
+            }
+            ((Buffer) staging).clear();
+            for (int i = start; i < end; i++) {
+                pager.copyOut(frameOf(batch[i]), staging);
+            }
+            ((Buffer) staging).flip();
+            try {
+                pager.getSwap().write(staging, slotOf(batch[start]));
+            } catch (IOException e) {
+                System.out.println("Page-out failed at swap slot " + slotOf(batch[start]) + ": " + e.getMessage());
+                written = false;
+            }
+            writes++;
+            start = end;
+        }
+        return written;
+    }
+
+    private static int slotOf(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int frameOf(long entry) {
+        return (int) entry;
+    }
+
+    //Returns the daemon's activity counts
+    public String report() {
+        return String.format("page-out daemon: watermarks %d/%d, wakeups=%d batches=%d pages written=%d in %d writes (%.1f pages/write)%n",
+                lowWatermark, highWatermark, wakeups, batches, pagesWritten, writes,
+                writes == 0 ? 0.0 : (double) pagesWritten / writes);
+    }
+}
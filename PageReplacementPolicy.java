@@ -0,0 +1,71 @@
+/**
+ * Picks the page the Pager evicts when it needs a frame and none is free. Policies
+ * know pages by the frame they occupy and, like a real kernel, never see individual
+ * accesses: they learn about them only through the referenced and dirty bits that
+ * the page table walk sets, which they read and clear through the Frames callback.
+ * Policies are only called under the pager's lock, so implementations need no locking
+ * of their own. The policy is chosen with the "os.replacement" system property (clock | aging | arc);
+ * each one's class comment gives what an eviction costs.
+ */
+public interface PageReplacementPolicy {
+
+    /**
+     * The frame table as a policy sees it
+     */
+    interface Frames {
+        //Returns true if the page in the frame was accessed since its referenced bit was last cleared
+        boolean isReferenced(int frame);
+
+        //Clears the referenced bit of the page in the frame, so its next access sets the bit again
+        void clearReferenced(int frame);
+
+        //Returns true if the page in the frame was written since it was last written to swap
+        boolean isDirty(int frame);
+
+        //Returns true if the page in the frame may be evicted right now
+        boolean isEvictable(int frame);
+    }
+
+    /**
+     * Called when a page is brought into a frame
+     * @param frame The frame
+     * @param page An identity of the page that stays the same while it is swapped out
+     */
+    void pageIn(int frame, long page);
+
+    /**
+     * Called when the page in a frame is freed rather than evicted
+     * @param frame The frame
+     */
+    void free(int frame);
+
+    /**
+     * Called when the page in a frame takes another identity without leaving memory,
+     * as when the process a shared frame is filed under stops sharing it
+     * @param frame The frame
+     * @param page The page's new identity
+     */
+    default void rename(int frame, long page) {
+    }
+
+    /**
+     * Chooses a page to evict and forgets its frame
+     * @param frames The frame table
+     * @return The frame of the page to evict, or -1 if no page may be evicted
+     */
+    int selectVictim(Frames frames);
+
+    //Returns the policy's name, as used by the os.replacement property
+    String getName();
+
+    //Creates a policy from its name, as used by the os.replacement property
+    static PageReplacementPolicy create(String name, int frames) {
+        if (name != null && name.equalsIgnoreCase("aging")) {
+            return new AgingPolicy(frames);
+        }
+        if (name != null && name.equalsIgnoreCase("arc")) {
+            return new AdaptiveReplacementPolicy(frames);
+        }
+        return new ClockPolicy(frames);
+    }
+}
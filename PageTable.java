@@ -0,0 +1,246 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A process's page table, with each entry packed into one long: the frame and the
+ * swap slot (each stored plus one, so 0 means none) and the allocated, referenced,
+ * dirty, read-only and read-ahead bits. Entries live in leaves of 128, reached through a three
+ * level tree of 7 bits per level that covers every page of the 2GB address space;
+ * levels and leaves are created when a page under them is first allocated, so a
+ * process pays only for the regions it uses. Leaves are AtomicLongArrays so the walk,
+ * which runs on the process's thread and sets the referenced and dirty bits, never
+ * loses an update the kernel makes to the same entry at the same time.
+ */
+public class PageTable {
+
+    private static final int LEVEL_BITS = 7;
+    private static final int LEVEL_SIZE = 1 << LEVEL_BITS;
+    private static final int LEVEL_MASK = LEVEL_SIZE - 1;
+
+    //Number of pages the table covers: every page of the non-negative int address space at 1KB a page
+    public static final int PAGES = 1 << (3 * LEVEL_BITS);
+
+    //Width of the frame and swap slot fields
+    public static final int FIELD_BITS = 27;
+    private static final long FIELD_MASK = (1L << FIELD_BITS) - 1;
+    private static final int SLOT_SHIFT = FIELD_BITS;
+
+    //Most frames, or swap slots, an entry can tell apart; the fields store the number plus one
+    public static final int MAX_FRAMES = (1 << FIELD_BITS) - 1;
+
+    public static final long READAHEAD = 1L << 59;
+    public static final long READ_ONLY = 1L << 60;
+    public static final long DIRTY = 1L << 61;
+    public static final long REFERENCED = 1L << 62;
+    public static final long ALLOCATED = 1L << 63;
+
+    /**
+     * Receives the allocated entries of a table
+     */
+    public interface EntryConsumer {
+        void accept(int virtualPage, long entry);
+    }
+
+    private AtomicLongArray[][] root;
+    private int leaves;
+
+    //Returns the frame an entry maps, or -1
+    public static int frameOf(long entry) {
+        return (int) (entry & FIELD_MASK) - 1;
+    }
+
+    //Returns the swap slot an entry holds, or -1
+    public static int slotOf(long entry) {
+        return (int) ((entry >>> SLOT_SHIFT) & FIELD_MASK) - 1;
+    }
+
+    //Returns the entry with its frame replaced; -1 removes the frame
+    public static long withFrame(long entry, int frame) {
+        return (entry & ~FIELD_MASK) | ((frame + 1) & FIELD_MASK);
+    }
+
+    //Returns the entry with its swap slot replaced; -1 removes the slot
+    public static long withSlot(long entry, int slot) {
+        return (entry & ~(FIELD_MASK << SLOT_SHIFT)) | (((slot + 1) & FIELD_MASK) << SLOT_SHIFT);
+    }
+
+    //Returns the leaf holding a page, or null if no page under it was ever allocated
+    private AtomicLongArray leaf(int virtualPage) {
+        AtomicLongArray[][] top = root;
+        if (top == null || virtualPage < 0 || virtualPage >= PAGES) {
+            return null;
+        }
+        AtomicLongArray[] middle = top[virtualPage >>> (2 * LEVEL_BITS)];
+        return middle == null ? null : middle[(virtualPage >>> LEVEL_BITS) & LEVEL_MASK];
+    }
+
+    //Returns the leaf holding a page, creating the levels above it as needed
+    private AtomicLongArray createLeaf(int virtualPage) {
+        if (virtualPage < 0 || virtualPage >= PAGES) {
+            throw new IllegalArgumentException("Virtual page " + virtualPage + " is outside the address space");
+        }
+        if (root == null) {
+            root = new AtomicLongArray[LEVEL_SIZE][];
+        }
+        AtomicLongArray[] middle = root[virtualPage >>> (2 * LEVEL_BITS)];
+        if (middle == null) {
+            middle = root[virtualPage >>> (2 * LEVEL_BITS)] = new AtomicLongArray[LEVEL_SIZE];
+        }
+        AtomicLongArray leaf = middle[(virtualPage >>> LEVEL_BITS) & LEVEL_MASK];
+        if (leaf == null) {
+            leaf = middle[(virtualPage >>> LEVEL_BITS) & LEVEL_MASK] = new AtomicLongArray(LEVEL_SIZE);
+            leaves++;
+        }
+        return leaf;
+    }
+
+    //Returns the entry of a page, 0 if it is not allocated
+    public long get(int virtualPage) {
+        AtomicLongArray leaf = leaf(virtualPage);
+        return leaf == null ? 0 : leaf.get(virtualPage & LEVEL_MASK);
+    }
+
+    //Replaces the entry of a page; 0 frees it
+    public void set(int virtualPage, long entry) {
+        if (entry == 0) {
+            AtomicLongArray leaf = leaf(virtualPage);
+            if (leaf != null) {
+                leaf.set(virtualPage & LEVEL_MASK, 0);
+            }
+            return;
+        }
+        createLeaf(virtualPage).set(virtualPage & LEVEL_MASK, entry);
+    }
+
+    //Points a page at a frame, -1 for none, allocating the page if it was not
+    public void setFrame(int virtualPage, int frame) {
+        AtomicLongArray leaf = createLeaf(virtualPage);
+        int index = virtualPage & LEVEL_MASK;
+        long entry;
+        do {
+            entry = leaf.get(index);
+        } while (!leaf.compareAndSet(index, entry, withFrame(entry, frame) | ALLOCATED));
+    }
+
+    //Gives a page a swap slot, -1 for none, allocating the page if it was not
+    public void setSlot(int virtualPage, int slot) {
+        AtomicLongArray leaf = createLeaf(virtualPage);
+        int index = virtualPage & LEVEL_MASK;
+        long entry;
+        do {
+            entry = leaf.get(index);
+        } while (!leaf.compareAndSet(index, entry, withSlot(entry, slot) | ALLOCATED));
+    }
+
+    /**
+     * Clears and sets bits of an allocated entry in one atomic step
+     * @param virtualPage The page
+     * @param clear The bits to clear
+     * @param set The bits to set
+     * @return The new entry, or 0 if the page is not allocated
+     */
+    public long update(int virtualPage, long clear, long set) {
+        AtomicLongArray leaf = leaf(virtualPage);
+        if (leaf == null) {
+            return 0;
+        }
+        int index = virtualPage & LEVEL_MASK;
+        while (true) {
+            long entry = leaf.get(index);
+            if ((entry & ALLOCATED) == 0) {
+                return 0;
+            }
+            long updated = (entry & ~clear) | set;
+            if (entry == updated || leaf.compareAndSet(index, entry, updated)) {
+                return updated;
+            }
+        }
+    }
+
+    /**
+     * The walk the MMU makes on a TLB miss: marks a mapped page referenced, and dirty
+     * on a write, and clears the mark of a page read ahead, which has now been used.
+     * A write to a read-only page does not map, so it faults.
+     * @param virtualPage The page
+     * @param write True for a write
+     * @return The frame, or -1 if the access has to fault
+     */
+    public int walk(int virtualPage, boolean write) {
+        AtomicLongArray leaf = leaf(virtualPage);
+        if (leaf == null) {
+            return -1;
+        }
+        int index = virtualPage & LEVEL_MASK;
+        long bits = write ? REFERENCED | DIRTY : REFERENCED;
+        while (true) {
+            long entry = leaf.get(index);
+            if (frameOf(entry) == -1 || (write && (entry & READ_ONLY) != 0)) {
+                return -1;
+            }
+            long walked = (entry | bits) & ~READAHEAD;
+            if (entry == walked || leaf.compareAndSet(index, entry, walked)) {
+                return frameOf(entry);
+            }
+        }
+    }
+
+    //Hands every allocated entry to the consumer, in page order, skipping the regions never used
+    public void forEach(EntryConsumer consumer) {
+        if (root == null) {
+            return;
+        }
+        for (int top = 0; top < LEVEL_SIZE; top++) {
+            if (root[top] == null) {
+                continue;
+            }
+            for (int middle = 0; middle < LEVEL_SIZE; middle++) {
+                AtomicLongArray leaf = root[top][middle];
+                if (leaf == null) {
+                    continue;
+                }
+                for (int i = 0; i < LEVEL_SIZE; i++) {
+                    long entry = leaf.get(i);
+                    if ((entry & ALLOCATED) != 0) {
+                        consumer.accept((top << (2 * LEVEL_BITS)) | (middle << LEVEL_BITS) | i, entry);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the first run of unallocated pages that is long enough, skipping a whole
+     * leaf at a time where no page was ever allocated
+     * @param pages The number of pages needed
+     * @return The first page of the run, or -1 if the address space has no such gap
+     */
+    public int findFree(int pages) {
+        int run = 0;
+        for (int page = 0; page < PAGES; ) {
+            if (leaf(page) == null) {
+                run += LEVEL_SIZE;
+                page += LEVEL_SIZE;
+                if (run >= pages) {
+                    return page - run;
+                }
+                continue;
+            }
+            run = (get(page) & ALLOCATED) != 0 ? 0 : run + 1;
+            page++;
+            if (run == pages) {
+                return page - pages;
+            }
+        }
+        return -1;
+    }
+
+    //Drops every level of the table
+    public void clear() {
+        root = null;
+        leaves = 0;
+    }
+
+    //Returns the number of leaves the table has created
+    public int getLeafCount() {
+        return leaves;
+    }
+}
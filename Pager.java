@@ -0,0 +1,822 @@
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Demand paging for the Kernel. AllocateMemory only reserves virtual pages; the first
+ * touch of a page faults into the kernel, which backs it with a zeroed frame. When
+ * frames run low, the PageReplacementPolicy picks victim pages, which are unmapped
+ * from their owners, and the owner's next touch of such a page faults it back in. A
+ * page keeps its swap slot after it is read back, so a victim that has not been
+ * written since is dropped without any I/O, as is a page that was only ever read and
+ * so is still all zeros; only dirty victims are written to the SwapFile. The
+ * PageOutDaemon does that in the background, and a fault evicts a page itself only
+ * when no frame is free. A fault that continues a sequential scan of the process also
+ * brings in the pages after it, a window that doubles while the faults stay sequential
+ * and closes on a random one: swapped-out pages are read back one I/O per run of
+ * neighbouring swap slots and never-touched ones are zeroed, using only frames that
+ * are free anyway: readahead never evicts, and a window is cut short rather than go
+ * below the daemon's low watermark. A frame table indexed by frame records which
+ * process and virtual page use each frame, so a victim can be unmapped from whichever
+ * process owns it, and answers the policy's questions about the referenced and dirty bits of
+ * the page in a frame. A victim's owner may be running on another core and using the
+ * page through its TLB without entering the kernel, so a victim is write-protected and
+ * its translation shot down before it is looked at: the shootdown waits for the owner
+ * to finish any access it translated the old way, the same acknowledgement a real
+ * shootdown waits for, and after it a write can only fault. A fork shares every frame
+ * and swap slot of the parent with the child, read-only in both: the first write to a
+ * shared frame copies it, and a dirty page sharing its slot is written to a new one.
+ * Evicting a shared frame unmaps it from every sharer, which then all share the slot
+ * holding the page; their sharers are listed by frame, as a fork keeps each page at
+ * the same virtual page in parent and child. The kernel thread and the
+ * daemon share the pager, so everything that changes the frame table, the frame
+ * allocator, the swap slots or the policy holds the pager's lock.
+ */
+public class Pager implements PageReplacementPolicy.Frames {
+
+    private final PhysicalMemory memory;
+    private final FrameAllocator frames;
+    private final SwapFile swap;
+    private final PageReplacementPolicy policy;
+    private final int pageSize;
+
+    //Frame table: the process and virtual page each frame backs; the owner is null for free frames
+    private final KernelandProcess[] frameOwners;
+    private final int[] frameVirtualPages;
+    private final boolean[] writeBack; //Frames the daemon is writing out; their pages stay mapped read-only meanwhile
+    private final PageOutDaemon daemon; //Null when faults evict pages themselves
+
+    //Every process mapping a frame that more than one process maps; frameOwners holds one of them
+    private final Map<Integer, List<KernelandProcess>> sharedFrames = new HashMap<>();
+
+    //Smallest readahead window, opened by the second fault of a sequential scan
+    private static final int MIN_READAHEAD = 4;
+    private final int maxReadahead;
+
+    //The pages a fault brings in, the faulting page first, and the frames they go to
+    private final int[] windowPages;
+    private final int[] windowFrames;
+    private final int[] aheadFrames;
+    private final ByteBuffer staging;
+
+    private final byte[] zeroPage;
+
+    private long minorFaults;
+    private long majorFaults;
+    private long evictions;
+    private long directEvictions;
+    private long cleanDrops;
+    private long failures;
+    private long readaheadPages; //Pages read back from swap ahead of use
+    private long faultAroundPages; //Never-touched pages zeroed ahead of use
+    private long readaheadUnused; //Pages brought in ahead that left memory without being used
+    private long swapReads;
+    private long forks;
+    private long sharedPages; //Pages forks shared instead of copying
+    private long copiesOnWrite;
+    private long sharedEvictions; //Shared frames evicted from all their sharers at once
+
+    /**
+     * Creates a pager
+     * @param memory The physical memory pages live in
+     * @param frames The allocator of its frames
+     * @param swap Where evicted pages go
+     * @param policy Picks the pages to evict
+     * @param pageSize The size of a page
+     * @param background True to keep frames free with a PageOutDaemon, false to evict only when a fault finds none
+     * @param maxReadahead The most pages a fault brings in after the faulting one, 0 for none
+     * @throws IllegalArgumentException if memory or swap has more pages than a page table entry can number
+     */
+    public Pager(PhysicalMemory memory, FrameAllocator frames, SwapFile swap, PageReplacementPolicy policy, int pageSize,
+            boolean background, int maxReadahead) {
+        if (frames.getTotalFrames() > PageTable.MAX_FRAMES) {
+            throw new IllegalArgumentException("os.memory is too big: a page table can map "
+                    + PageTable.MAX_FRAMES + " frames, not " + frames.getTotalFrames());
+        }
+        if (swap.getSlots() > PageTable.MAX_FRAMES) {
+            throw new IllegalArgumentException("os.swap is too big: a page table can number "
+                    + PageTable.MAX_FRAMES + " swap slots, not " + swap.getSlots());
+        }
+        this.memory = memory;
+        this.frames = frames;
+        this.swap = swap;
+        this.policy = policy;
+        this.pageSize = pageSize;
+        this.frameOwners = new KernelandProcess[frames.getTotalFrames()];
+        this.frameVirtualPages = new int[frames.getTotalFrames()];
+        this.writeBack = new boolean[frames.getTotalFrames()];
+        this.zeroPage = new byte[pageSize];
+        this.daemon = background ? new PageOutDaemon(this, frames.getTotalFrames(), pageSize) : null;
+        this.maxReadahead = Math.max(0, maxReadahead);
+        this.windowPages = new int[this.maxReadahead + 1];
+        this.windowFrames = new int[this.maxReadahead + 1];
+        this.aheadFrames = new int[this.maxReadahead];
+        this.staging = ByteBuffer.allocateDirect((this.maxReadahead + 1) * pageSize);
+    }
+
+    /**
+     * Brings a page into memory: a page touched for the first time gets a zeroed frame
+     * and a swapped-out page is read back from its slot, which it keeps until it is written
+     * @param kp The process that faulted
+     * @param virtualPage The page it touched
+     * @param write True if the access was a write
+     * @return The frame now backing the page, or -1 if the page is not allocated or memory and swap are both full
+     */
+    public synchronized int fault(KernelandProcess kp, int virtualPage, boolean write) {
+        if (!kp.isAllocated(virtualPage)) {
+            return -1;
+        }
+        int frame = kp.getPhysicalPageNumber(virtualPage);
+        if (frame != -1) {
+            if (write && sharedFrames.containsKey(frame)) {
+                return copyOnWrite(kp, virtualPage, frame);
+            }
+            if (write) {
+                // A write to a page being written back, or to one a fork shared that no other process maps any more
+                kp.getPageTable().update(virtualPage, PageTable.READ_ONLY | PageTable.READAHEAD,
+                        PageTable.REFERENCED | PageTable.DIRTY);
+            }
+            return frame; // Otherwise the process walked its page table before an earlier fault had mapped the page
+        }
+        frame = takeFrame();
+        if (frame == -1) {
+            failures++;
+            return -1;
+        }
+        if (kp.getDiskPageNumber(virtualPage) == -1) {
+            minorFaults++;
+        } else {
+            majorFaults++;
+        }
+        windowPages[0] = virtualPage;
+        windowFrames[0] = frame;
+        int count = 1 + openWindow(kp, virtualPage);
+        load(kp, count);
+        for (int i = 0; i < count; i++) {
+            map(kp, windowPages[i], windowFrames[i]);
+            if (i == 0) {
+                kp.setReferenced(virtualPage, true);
+                kp.setDirty(virtualPage, write);
+            } else {
+                kp.getPageTable().update(windowPages[i], PageTable.REFERENCED | PageTable.DIRTY, PageTable.READAHEAD);
+            }
+            policy.pageIn(windowFrames[i], (long) kp.getPid() << 32 | windowPages[i]);
+        }
+        return frame;
+    }
+
+    /**
+     * Sizes the readahead window of a fault and takes frames for the pages in it: the
+     * allocated pages right after the faulting one that are not in memory, as many as
+     * the window allows and as there are free frames above the daemon's low watermark.
+     * Nothing is evicted for speculative pages: a window cut short by low memory wakes
+     * the daemon and the scan faults the rest in one at a time.
+     * @param kp The process that faulted
+     * @param virtualPage The page it faulted on
+     * @return The number of pages after it to bring in, filled in from index 1 of the window
+     */
+    private int openWindow(KernelandProcess kp, int virtualPage) {
+        int window = 0;
+        if (virtualPage == kp.getNextSequentialFault()) {
+            window = Math.min(maxReadahead, Math.max(MIN_READAHEAD, kp.getReadaheadWindow() * 2));
+        }
+        kp.setReadaheadWindow(window);
+        int count = 0;
+        while (count < window && virtualPage + count + 1 < PageTable.PAGES) {
+            int page = virtualPage + count + 1;
+            if (!kp.isAllocated(page) || kp.getPhysicalPageNumber(page) != -1) {
+                break;
+            }
+            windowPages[++count] = page;
+        }
+        int spare = Math.max(0, frames.getFreeFrames() - (daemon == null ? 0 : daemon.getLowWatermark()));
+        int taken = frames.allocate(aheadFrames, Math.min(count, spare));
+        System.arraycopy(aheadFrames, 0, windowFrames, 1, taken);
+        if (taken < count && daemon != null) {
+            daemon.wake();
+        }
+        count = taken;
+        kp.setNextSequentialFault(virtualPage + count + 1);
+        return count;
+    }
+
+    /**
+     * Fills the frames of a window: pages in the compressed swap tier are decompressed,
+     * each run of pages in neighbouring slots of the swap file is read with one I/O and
+     * pages that were never swapped out are zeroed
+     * @param kp The process the pages belong to
+     * @param count The number of pages in the window
+     */
+    private void load(KernelandProcess kp, int count) {
+        for (int i = 0; i < count; ) {
+            long address = (long) windowFrames[i] * pageSize;
+            int slot = kp.getDiskPageNumber(windowPages[i]);
+            if (slot == -1) {
+                memory.fill(address, pageSize, zeroPage);
+                faultAroundPages += i == 0 ? 0 : 1;
+                i++;
+                continue;
+            }
+            if (swap.isCompressed(slot)) {
+                swap.read(memory, address, slot);
+                readaheadPages += i == 0 ? 0 : 1;
+                i++;
+                continue;
+            }
+            int run = 1;
+            while (i + run < count && kp.getDiskPageNumber(windowPages[i + run]) == slot + run
+                    && !swap.isCompressed(slot + run)) {
+                run++;
+            }
+            readaheadPages += i == 0 ? run - 1 : run;
+            swapReads++;
+            if (run == 1 || !readRun(i, run, slot)) {
+                for (int j = 0; j < run; j++) {
+                    swap.read(memory, (long) windowFrames[i + j] * pageSize, slot + j);
+                }
+            }
+            i += run;
+        }
+    }
+
+    //Reads a run of slots into the window's frames with one read through the swap file's channel; returns false if it failed
+    private boolean readRun(int first, int run, int slot) {
+        ((Buffer) staging).clear();
+        ((Buffer) staging).limit(run * pageSize);
+        try {
+            swap.read(staging, slot);
+        } catch (IOException e) {
+            return false;
+        }
+        ((Buffer) staging).flip();
+        for (int j = 0; j < run; j++) {
+            memory.write((long) windowFrames[first + j] * pageSize, staging, pageSize);
+        }
+        return true;
+    }
+
+    /**
+     * Gives a process its own copy of a frame it shares since a fork, on its first write to it
+     * @param kp The process that wrote
+     * @param virtualPage The page it wrote
+     * @param shared The frame it shares
+     * @return The frame of its copy, or -1 if memory and swap are both full
+     */
+    private int copyOnWrite(KernelandProcess kp, int virtualPage, int shared) {
+        int frame = takeFrame();
+        if (frame == -1) {
+            failures++;
+            return -1;
+        }
+        memory.copy((long) shared * pageSize, (long) frame * pageSize, pageSize);
+        leaveShared(kp, shared);
+        kp.getOwnedFrames().remove(shared, 1);
+        map(kp, virtualPage, frame);
+        kp.getPageTable().update(virtualPage, PageTable.READ_ONLY | PageTable.READAHEAD,
+                PageTable.REFERENCED | PageTable.DIRTY);
+        invalidate(kp, virtualPage);
+        policy.pageIn(frame, (long) kp.getPid() << 32 | virtualPage);
+        copiesOnWrite++;
+        return frame;
+    }
+
+    //Takes a process off the sharers of a frame, leaving the frame, and its identity for the policy, to the others
+    private void leaveShared(KernelandProcess kp, int frame) {
+        List<KernelandProcess> sharers = sharedFrames.get(frame);
+        sharers.remove(kp);
+        if (sharers.size() == 1) {
+            sharedFrames.remove(frame);
+        }
+        if (frameOwners[frame] != sharers.get(0)) {
+            frameOwners[frame] = sharers.get(0);
+            policy.rename(frame, (long) sharers.get(0).getPid() << 32 | frameVirtualPages[frame]);
+        }
+    }
+
+    /**
+     * Copies a process's address space into a child it forked. Every allocated page goes
+     * to the same virtual page of the child: frames and swap slots are shared, with the
+     * frames made read-only in both so the first write to one copies it, and frames the
+     * daemon is writing out, which are never shared, are copied straight away.
+     * @param parent The process that forked
+     * @param child The new process, with an empty address space
+     * @return false if memory ran out copying a frame being written out; the child keeps what it got so far
+     */
+    public synchronized boolean fork(KernelandProcess parent, KernelandProcess child) {
+        boolean[] copied = {true};
+        parent.getPageTable().forEach((page, entry) -> {
+            if (!copied[0]) {
+                return;
+            }
+            int frame = PageTable.frameOf(entry);
+            long inherited = entry & ~(PageTable.REFERENCED | PageTable.READAHEAD);
+            if (frame != -1 && writeBack[frame]) {
+                int copy = takeFrame();
+                if (copy == -1) {
+                    copied[0] = false;
+                    return;
+                }
+                memory.copy((long) frame * pageSize, (long) copy * pageSize, pageSize);
+                child.copyPage(page, PageTable.withSlot(PageTable.withFrame(inherited, copy), -1)
+                        & ~PageTable.READ_ONLY | PageTable.DIRTY);
+                map(child, page, copy);
+                policy.pageIn(copy, (long) child.getPid() << 32 | page);
+                return;
+            }
+            if (PageTable.slotOf(entry) != -1) {
+                swap.shareSlot(PageTable.slotOf(entry));
+            }
+            if (frame != -1) {
+                sharedFrames.computeIfAbsent(frame, shared -> {
+                    List<KernelandProcess> sharers = new ArrayList<>();
+                    sharers.add(frameOwners[shared]);
+                    return sharers;
+                }).add(child);
+                child.getOwnedFrames().add(frame, 1);
+                parent.getPageTable().update(page, 0, PageTable.READ_ONLY);
+                inherited |= PageTable.READ_ONLY;
+                sharedPages++;
+            }
+            child.copyPage(page, inherited);
+        });
+        for (Processor processor : Scheduler.getProcessors()) {
+            processor.getTlb().invalidateAll(parent.getAsid()); // The parent may hold writable translations of pages now shared
+        }
+        forks++;
+        return copied[0];
+    }
+
+    //Maps a frame into a process and records it in the frame table and the process's owned frames
+    private void map(KernelandProcess kp, int virtualPage, int frame) {
+        kp.setPhysicalPageNumber(virtualPage, frame);
+        kp.getOwnedFrames().add(frame, 1);
+        frameOwners[frame] = kp;
+        frameVirtualPages[frame] = virtualPage;
+    }
+
+    //Takes a free frame, waking the daemon when frames run low and evicting a page when there is none
+    private int takeFrame() {
+        int frame = frames.allocate(1);
+        if (daemon != null && frames.getFreeFrames() < daemon.getLowWatermark()) {
+            daemon.wake();
+        }
+        return frame != -1 ? frame : evict();
+    }
+
+    /**
+     * Has the policy pick a victim, writes it out if it is dirty and hands its frame over without freeing it
+     * @return The frame, or -1 if swap is full or no page may be evicted
+     */
+    private int evict() {
+        int frame = policy.selectVictim(this);
+        if (frame == -1) {
+            return -1;
+        }
+        KernelandProcess owner = frameOwners[frame];
+        int virtualPage = frameVirtualPages[frame];
+        if (sharedFrames.containsKey(frame)) {
+            if (!evictShared(frame, true)) {
+                policy.pageIn(frame, (long) owner.getPid() << 32 | virtualPage);
+                return -1;
+            }
+            return frame;
+        }
+        protect(owner, virtualPage);
+        if (!owner.isDirty(virtualPage)) {
+            cleanDrops++;
+        } else {
+            int slot = slotFor(owner, virtualPage);
+            if (slot == -1) {
+                owner.getPageTable().update(virtualPage, PageTable.READ_ONLY, 0);
+                policy.pageIn(frame, (long) owner.getPid() << 32 | virtualPage);
+                return -1;
+            }
+            swap.write(memory, (long) frame * pageSize, slot);
+            owner.setDiskPageNumber(virtualPage, slot);
+            owner.setDirty(virtualPage, false);
+            evictions++;
+            directEvictions++;
+        }
+        unmap(frame);
+        return frame;
+    }
+
+    /**
+     * Reclaims frames for the daemon until the target is free, counting the pages it
+     * queues. Each victim is write-protected first, so its owner, which may be running
+     * on another core, can only write it again by faulting, and the fault waits for the
+     * pager's lock. Clean victims are then freed straight away. Dirty ones get a swap
+     * slot if they have none, have their dirty bit cleared, and go into the batch, their
+     * frames still mapped read-only, for the daemon to write out; a write meanwhile
+     * faults and marks the page dirty again.
+     * @param batch Receives each queued page as its slot in the high half and its frame in the low half
+     * @param target The number of free frames wanted
+     * @return The number of pages queued
+     */
+    synchronized int startWriteBack(long[] batch, int target) {
+        int count = 0;
+        while (count < batch.length && frames.getFreeFrames() + count < target) {
+            int frame = policy.selectVictim(this);
+            if (frame == -1) {
+                break;
+            }
+            KernelandProcess owner = frameOwners[frame];
+            int virtualPage = frameVirtualPages[frame];
+            if (sharedFrames.containsKey(frame)) {
+                if (!evictShared(frame, false)) {
+                    policy.pageIn(frame, (long) owner.getPid() << 32 | virtualPage);
+                    break;
+                }
+                frames.free(frame, 1);
+                continue;
+            }
+            protect(owner, virtualPage);
+            if (!owner.isDirty(virtualPage)) {
+                unmap(frame);
+                frames.free(frame, 1);
+                cleanDrops++;
+                continue;
+            }
+            int slot = slotFor(owner, virtualPage);
+            if (slot == -1) {
+                owner.getPageTable().update(virtualPage, PageTable.READ_ONLY, 0);
+                policy.pageIn(frame, (long) owner.getPid() << 32 | virtualPage);
+                break;
+            }
+            owner.setDiskPageNumber(virtualPage, slot);
+            // Only now that no write can get past the protection is it safe to call the page clean
+            owner.getPageTable().update(virtualPage, PageTable.DIRTY | PageTable.REFERENCED, 0);
+            owner.getOwnedFrames().remove(frame, 1);
+            writeBack[frame] = true;
+            batch[count++] = (long) slot << 32 | frame;
+        }
+        return count;
+    }
+
+    //Returns the slot a dirty page is written to: its own, or a new one if it has none or shares it since a fork; -1 if swap is full
+    private int slotFor(KernelandProcess owner, int virtualPage) {
+        int slot = owner.getDiskPageNumber(virtualPage);
+        if (slot != -1 && !swap.isShared(slot)) {
+            return slot;
+        }
+        int fresh = swap.allocateSlot();
+        if (fresh != -1 && slot != -1) {
+            swap.freeSlot(slot); // Gives up this process's share; the others keep the old contents
+        }
+        return fresh;
+    }
+
+    /**
+     * Takes a frame that processes share since a fork away from all of them, leaving it
+     * unmapped but not freed. If any of them has the page dirty it is written once, to a
+     * new slot they all share, so each one's next touch reads it back into a frame of its
+     * own and a write after that goes to a slot of its own; otherwise each keeps the slot,
+     * or the zero page, that already holds the contents. This is done on the spot, even
+     * for the daemon, as no sharer may write the frame anyway.
+     * @param frame The shared frame
+     * @param direct True if a fault is evicting it, false for the daemon
+     * @return false if the page needed a slot and swap is full; nothing is changed then
+     */
+    private boolean evictShared(int frame, boolean direct) {
+        List<KernelandProcess> sharers = sharedFrames.get(frame);
+        int virtualPage = frameVirtualPages[frame];
+        boolean dirty = false;
+        for (KernelandProcess sharer : sharers) {
+            shootDown(sharer, virtualPage); // Already read-only; this waits out their reads
+            dirty |= sharer.isDirty(virtualPage);
+        }
+        if (!dirty) {
+            cleanDrops++;
+        } else {
+            int slot = swap.allocateSlot();
+            if (slot == -1) {
+                return false;
+            }
+            swap.write(memory, (long) frame * pageSize, slot);
+            for (int i = 0; i < sharers.size(); i++) {
+                KernelandProcess sharer = sharers.get(i);
+                if (i > 0) {
+                    swap.shareSlot(slot);
+                }
+                if (sharer.getDiskPageNumber(virtualPage) != -1) {
+                    swap.freeSlot(sharer.getDiskPageNumber(virtualPage));
+                }
+                sharer.setDiskPageNumber(virtualPage, slot);
+                sharer.setDirty(virtualPage, false);
+            }
+            evictions++;
+            if (direct) {
+                directEvictions++;
+            }
+        }
+        for (KernelandProcess sharer : sharers) {
+            unmapPage(sharer, virtualPage, frame);
+        }
+        sharedFrames.remove(frame);
+        frameOwners[frame] = null;
+        sharedEvictions++;
+        return true;
+    }
+
+    //Copies the page in a frame to the buffer, advancing its position; the daemon calls this without the lock
+    void copyOut(int frame, ByteBuffer destination) {
+        memory.read((long) frame * pageSize, destination, pageSize);
+    }
+
+    //Offers the page in a frame to the compressed swap tier; the daemon calls this without the lock
+    boolean compressOut(int frame, int slot) {
+        return swap.writeCompressed(memory, (long) frame * pageSize, slot);
+    }
+
+    /**
+     * Finishes a batch the daemon wrote out. A page nobody touched while it was written
+     * is unmapped and its frame freed, while it is still read-only, so no write can
+     * slip in between the check and the unmap; one that was read or written meanwhile
+     * stays, writable again, and goes back to the policy. Pages whose memory was freed
+     * meanwhile give back their frames and slots now.
+     * @param batch The pages startWriteBack queued
+     * @param count The number of pages
+     * @param written False if writing them failed, which leaves every page dirty
+     */
+    synchronized void finishWriteBack(long[] batch, int count, boolean written) {
+        for (int i = 0; i < count; i++) {
+            int frame = (int) batch[i];
+            int slot = (int) (batch[i] >>> 32);
+            writeBack[frame] = false;
+            KernelandProcess owner = frameOwners[frame];
+            if (owner == null) {
+                swap.freeSlot(slot);
+                frames.free(frame, 1);
+                continue;
+            }
+            int virtualPage = frameVirtualPages[frame];
+            long entry = owner.getPageTable().update(virtualPage, 0, written ? 0 : PageTable.DIRTY);
+            owner.getOwnedFrames().add(frame, 1);
+            if (written) {
+                evictions++;
+            }
+            if ((entry & (PageTable.DIRTY | PageTable.REFERENCED)) == 0 && isEvictable(frame)) {
+                unmap(frame);
+                frames.free(frame, 1);
+            } else {
+                owner.getPageTable().update(virtualPage, PageTable.READ_ONLY, 0);
+                policy.pageIn(frame, (long) owner.getPid() << 32 | virtualPage);
+            }
+        }
+    }
+
+    //Returns the number of free frames
+    public int getFreeFrames() {
+        return frames.getFreeFrames();
+    }
+
+    //Returns true if the page in the frame was accessed since its referenced bit was last cleared
+    @Override
+    public boolean isReferenced(int frame) {
+        return frameOwners[frame].isReferenced(frameVirtualPages[frame]);
+    }
+
+    //Clears the referenced bit and drops the page's TLB entries, so its next access walks the page table and sets the bit again
+    @Override
+    public void clearReferenced(int frame) {
+        frameOwners[frame].setReferenced(frameVirtualPages[frame], false);
+        invalidate(frameOwners[frame], frameVirtualPages[frame]);
+    }
+
+    //Returns true if the page in the frame was written since it was last written to swap
+    @Override
+    public boolean isDirty(int frame) {
+        return frameOwners[frame].isDirty(frameVirtualPages[frame]);
+    }
+
+    //Every page in memory is evictable, even one its running owner is using, as eviction write-protects it and waits out the owner's accesses
+    @Override
+    public boolean isEvictable(int frame) {
+        return frameOwners[frame] != null;
+    }
+
+    //Unmaps a frame from its owner, whose swap slot or the zero page now holds the page
+    private void unmap(int frame) {
+        unmapPage(frameOwners[frame], frameVirtualPages[frame], frame);
+        frameOwners[frame] = null;
+    }
+
+    //Unmaps a frame from one of the processes mapping it
+    private void unmapPage(KernelandProcess kp, int virtualPage, int frame) {
+        countUnused(kp.getPageTable().get(virtualPage));
+        kp.getPageTable().update(virtualPage, PageTable.READAHEAD | PageTable.READ_ONLY, 0);
+        kp.setPhysicalPageNumber(virtualPage, -1);
+        shootDown(kp, virtualPage);
+        kp.getOwnedFrames().remove(frame, 1);
+    }
+
+    //Counts a page leaving memory that was brought in ahead of use and never used
+    private void countUnused(long entry) {
+        if ((entry & PageTable.READAHEAD) != 0) {
+            readaheadUnused++;
+        }
+    }
+
+    //Shoots a page's translation down on every core
+    private static void invalidate(KernelandProcess kp, int virtualPage) {
+        for (Processor processor : Scheduler.getProcessors()) {
+            processor.getTlb().invalidate(kp.getAsid(), virtualPage);
+        }
+    }
+
+    /**
+     * Shoots a page's translation down after its entry has changed, and waits until the
+     * owner cannot be using the old one, as a real shootdown waits for every core to
+     * acknowledge it. The first wait lets an access that walked the old entry finish
+     * filling the TLB; the second lets one that used the dropped translation finish.
+     */
+    private static void shootDown(KernelandProcess kp, int virtualPage) {
+        kp.awaitAccess();
+        invalidate(kp, virtualPage);
+        kp.awaitAccess();
+    }
+
+    //Write-protects a page so that, until the pager's lock is let go, no write can change it or its dirty bit
+    private static void protect(KernelandProcess kp, int virtualPage) {
+        kp.getPageTable().update(virtualPage, 0, PageTable.READ_ONLY);
+        shootDown(kp, virtualPage);
+    }
+
+    /**
+     * Unreserves a range of pages, freeing their frames, one free per run of
+     * contiguous frames, and their swap slots. A page the daemon is writing out keeps
+     * its frame and slot until the write is finished.
+     * @param kp The process the pages belong to
+     * @param first The first virtual page
+     * @param pages The number of pages
+     */
+    public synchronized void release(KernelandProcess kp, int first, int pages) {
+        int runStart = -1;
+        int runLength = 0;
+        for (int page = first; page < first + pages; page++) {
+            int frame = kp.getPhysicalPageNumber(page);
+            int slot = kp.getDiskPageNumber(page);
+            countUnused(kp.getPageTable().get(page));
+            kp.releasePage(page);
+            invalidate(kp, page);
+            if (frame != -1 && sharedFrames.containsKey(frame)) {
+                leaveShared(kp, frame);
+                kp.getOwnedFrames().remove(frame, 1);
+                frame = -1;
+            }
+            if (frame != -1 && writeBack[frame]) {
+                frameOwners[frame] = null;
+                continue;
+            }
+            if (slot != -1) {
+                swap.freeSlot(slot);
+            }
+            if (frame == -1) {
+                continue;
+            }
+            frameOwners[frame] = null;
+            policy.free(frame);
+            kp.getOwnedFrames().remove(frame, 1);
+            if (runLength > 0 && frame == runStart + runLength) {
+                runLength++;
+                continue;
+            }
+            if (runLength > 0) {
+                frames.free(runStart, runLength);
+            }
+            runStart = frame;
+            runLength = 1;
+        }
+        if (runLength > 0) {
+            frames.free(runStart, runLength);
+        }
+    }
+
+    /**
+     * Releases everything a finished process held: its frames in one sweep over the set
+     * it owns, then the swap slots of its pages, leaving those being written out to the
+     * daemon. The caller flushes its TLB entries.
+     * @param kp The process that finished
+     */
+    public synchronized void releaseAll(KernelandProcess kp) {
+        FrameSet owned = kp.getOwnedFrames();
+        List<Integer> shared = new ArrayList<>();
+        owned.forEachWord((word, bits) -> {
+            for (; bits != 0; bits &= bits - 1) {
+                int frame = word * 64 + Long.numberOfTrailingZeros(bits);
+                if (sharedFrames.containsKey(frame)) {
+                    shared.add(frame);
+                    continue;
+                }
+                countUnused(kp.getPageTable().get(frameVirtualPages[frame]));
+                frameOwners[frame] = null;
+                policy.free(frame);
+            }
+        });
+        for (int frame : shared) {
+            leaveShared(kp, frame);
+            owned.remove(frame, 1);
+        }
+        frames.free(owned);
+        owned.clear();
+        if (kp.getSwappedPages() > 0) {
+            kp.getPageTable().forEach((page, entry) -> {
+                int frame = PageTable.frameOf(entry);
+                if (frame != -1 && writeBack[frame]) {
+                    frameOwners[frame] = null;
+                } else if (PageTable.slotOf(entry) != -1) {
+                    swap.freeSlot(PageTable.slotOf(entry));
+                }
+            });
+        }
+        kp.clearMappings();
+    }
+
+    //Returns the number of faults on pages touched for the first time
+    public long getMinorFaults() {
+        return minorFaults;
+    }
+
+    //Returns the number of faults that read a page back from swap
+    public long getMajorFaults() {
+        return majorFaults;
+    }
+
+    //Returns the number of pages written out to swap
+    public long getEvictions() {
+        return evictions;
+    }
+
+    //Returns the number of dirty pages a fault had to write out itself because no frame was free
+    public long getDirectEvictions() {
+        return directEvictions;
+    }
+
+    //Returns the number of clean pages reclaimed without writing them
+    public long getCleanDrops() {
+        return cleanDrops;
+    }
+
+    //Returns the number of pages read back from swap ahead of a sequential scan
+    public long getReadaheadPages() {
+        return readaheadPages;
+    }
+
+    //Returns the number of never-touched pages zeroed ahead of a sequential scan
+    public long getFaultAroundPages() {
+        return faultAroundPages;
+    }
+
+    //Returns the number of pages brought in ahead that left memory again without being used
+    public long getReadaheadUnused() {
+        return readaheadUnused;
+    }
+
+    //Returns the number of frames shared by forks and not yet copied on a write
+    public synchronized int getSharedFrames() {
+        return sharedFrames.size();
+    }
+
+    //Returns the number of shared frames copied on a write
+    public long getCopiesOnWrite() {
+        return copiesOnWrite;
+    }
+
+    //Returns the number of shared frames evicted
+    public long getSharedEvictions() {
+        return sharedEvictions;
+    }
+
+    //Returns the page-out daemon, or null when faults evict pages themselves
+    public PageOutDaemon getDaemon() {
+        return daemon;
+    }
+
+    //Returns the swap file
+    public SwapFile getSwap() {
+        return swap;
+    }
+
+    //Returns the replacement policy
+    public PageReplacementPolicy getPolicy() {
+        return policy;
+    }
+
+    //Returns the fault, eviction and swap traffic counts
+    public String report() {
+        return String.format("paging (%s): minor faults=%d major faults=%d evictions=%d (%d by faults) clean drops=%d failed=%d,"
+                + " swap in=%d KB out=%d KB, slots used %d/%d%n",
+                policy.getName(), minorFaults, majorFaults, evictions, directEvictions, cleanDrops, failures,
+                swap.getBytesIn() / 1024, swap.getBytesOut() / 1024, swap.getUsedSlots(), swap.getSlots())
+                + String.format("readahead (up to %d pages): %d read ahead from swap and %d zeroed ahead, %d unused,"
+                + " %d swap file reads (%.1f pages/read)%n", maxReadahead, readaheadPages, faultAroundPages, readaheadUnused,
+                swapReads, swapReads == 0 ? 0.0 : (double) swap.getBytesIn() / pageSize / swapReads)
+                + swap.report() + (daemon == null ? "" : daemon.report())
+                + (forks == 0 ? "" : String.format("copy-on-write: forks=%d pages shared=%d copied on write=%d evicted while shared=%d,"
+                + " %d frames still shared%n", forks, sharedPages, copiesOnWrite, sharedEvictions, sharedFrames.size()));
+    }
+}
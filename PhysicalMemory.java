@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The simulated machine's physical memory, kept off the Java heap so multi-GB machines
+ * cost neither heap space nor GC time. Memory is split into chunks of up to 1GB, each a
+ * direct ByteBuffer or, when a backing file is given, a memory-mapped region of that
+ * file so the contents persist between runs. The size comes from the "os.memory"
+ * system property (bytes, with an optional K, M or G suffix, 1M by default) and the
+ * backing file from "os.memory.file". Direct buffers count against
+ * -XX:MaxDirectMemorySize; mapped files do not. The bulk methods move a run of bytes
+ * that must stay within one chunk, which any run within one page does.
+ */
+public class PhysicalMemory {
+
+    private static final int CHUNK_BITS = 30;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final long size;
+    private final ByteBuffer[] chunks;
+
+    //A single chunk is the common case; keeping it in its own field lets the JIT drop the chunk lookup
+    private final ByteBuffer first;
+
+    /**
+     * Creates memory sized and backed as the os.memory and os.memory.file system properties say
+     */
+    public PhysicalMemory() {
+        this(parseSize(System.getProperty("os.memory", "1M")), System.getProperty("os.memory.file"));
+    }
+
+    /**
+     * Creates physical memory
+     * @param size The number of bytes
+     * @param file A file to map the memory onto, or null for direct buffers
+     */
+    public PhysicalMemory(long size, String file) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Physical memory size must be positive: " + size);
+        }
+        this.size = size;
+        this.chunks = new ByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+        if (file == null) {
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = ByteBuffer.allocateDirect(chunkSize(i));
+            }
+        } else {
+            try (RandomAccessFile backing = new RandomAccessFile(file, "rw")) {
+                backing.setLength(size);
+                FileChannel channel = backing.getChannel();
+                for (int i = 0; i < chunks.length; i++) {
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i << CHUNK_BITS, chunkSize(i));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not map physical memory onto " + file, e);
+            }
+        }
+        this.first = chunks[0];
+    }
+
+    //Length of one chunk; only the last may be shorter than 1GB
+    private int chunkSize(int chunk) {
+        return (int) Math.min(1L << CHUNK_BITS, size - ((long) chunk << CHUNK_BITS));
+    }
+
+    /**
+     * Parses a size such as 1048576, 64K, 512M or 4G
+     * @param value The text to parse
+     * @return The number of bytes
+     */
+    public static long parseSize(String value) {
+        String text = value.trim().toUpperCase();
+        if (text.isEmpty()) {
+            throw new IllegalArgumentException("A size needs a number of bytes");
+        }
+        long unit;
+        switch (text.charAt(text.length() - 1)) {
+            case 'G':
+                unit = 1L << 30;
+                break;
+            case 'M':
+                unit = 1L << 20;
+                break;
+            case 'K':
+                unit = 1L << 10;
+                break;
+            default:
+                unit = 1;
+        }
+        if (unit != 1) {
+            text = text.substring(0, text.length() - 1);
+        }
+        return Long.parseLong(text) * unit;
+    }
+
+    //Returns the number of bytes of memory
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Reads one byte
+     * @param address The physical address, which must be below size()
+     * @return The byte
+     */
+    public byte read(long address) {
+        if (address <= CHUNK_MASK) {
+            return first.get((int) address);
+        }
+        return chunks[(int) (address >>> CHUNK_BITS)].get((int) (address & CHUNK_MASK));
+    }
+
+    /**
+     * Writes one byte
+     * @param address The physical address, which must be below size()
+     * @param value The byte
+     */
+    public void write(long address, byte value) {
+        if (address <= CHUNK_MASK) {
+            first.put((int) address, value);
+            return;
+        }
+        chunks[(int) (address >>> CHUNK_BITS)].put((int) (address & CHUNK_MASK), value);
+    }
+
+    //Returns a view of length bytes at an address; a view of its own so threads copying at once never share a position
+    private ByteBuffer view(long address, int length) {
+        ByteBuffer view = chunks[(int) (address >>> CHUNK_BITS)].duplicate();
+        int index = (int) (address & CHUNK_MASK);
+        ((Buffer) view).limit(index + length);
+        ((Buffer) view).position(index);
+        return view;
+    }
+
+    /**
+     * Copies bytes out of memory into an array
+     * @param address The physical address of the first byte
+     * @param destination The array to fill
+     * @param offset Where in the array the first byte goes
+     * @param length The number of bytes
+     */
+    public void read(long address, byte[] destination, int offset, int length) {
+        view(address, length).get(destination, offset, length);
+    }
+
+    /**
+     * Copies bytes from an array into memory
+     * @param address The physical address of the first byte
+     * @param source The array to copy from
+     * @param offset Where in the array the first byte is
+     * @param length The number of bytes
+     */
+    public void write(long address, byte[] source, int offset, int length) {
+        view(address, length).put(source, offset, length);
+    }
+
+    /**
+     * Copies bytes out of memory into a buffer, advancing the buffer's position
+     * @param address The physical address of the first byte
+     * @param destination The buffer to fill; length bytes must remain in it
+     * @param length The number of bytes
+     */
+    public void read(long address, ByteBuffer destination, int length) {
+        destination.put(view(address, length));
+    }
+
+    /**
+     * Copies bytes from a buffer into memory, advancing the buffer's position
+     * @param address The physical address of the first byte
+     * @param source The buffer to copy from; length bytes must remain in it
+     * @param length The number of bytes
+     */
+    public void write(long address, ByteBuffer source, int length) {
+        ByteBuffer slice = source.duplicate();
+        ((Buffer) slice).limit(slice.position() + length);
+        view(address, length).put(slice);
+        ((Buffer) source).position(source.position() + length);
+    }
+
+    /**
+     * Copies bytes from one place in memory to another
+     * @param from The physical address to copy from
+     * @param to The physical address to copy to
+     * @param length The number of bytes
+     */
+    public void copy(long from, long to, int length) {
+        view(to, length).put(view(from, length));
+    }
+
+    /**
+     * Sets a run of bytes to one value
+     * @param address The physical address of the first byte
+     * @param length The number of bytes
+     * @param pattern A page of the value to set, at least length bytes long
+     */
+    public void fill(long address, int length, byte[] pattern) {
+        view(address, length).put(pattern, 0, length);
+    }
+}
@@ -16,9 +16,7 @@ public class PingProcess extends UserlandProcess {
             System.out.println("I am PING, pong = " + pongPid);
 
             for (int i=0; i < 15; i++) {
-                try {
-                    Thread.sleep(100); //sleeps for 100 ms
-                } catch (Exception e) { }
+                OS.sleep(100); //sleeps for 100 ms
                 KernelMessage message = new KernelMessage(senderID, pongPid, i, messageData);
                 Kernel.SendMessage(message);
                 System.out.println("  PING: from: " + pongPid + " to: " + senderID + " what: " + i);
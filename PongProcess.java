@@ -12,9 +12,7 @@ public class PongProcess extends UserlandProcess {
             System.out.println("I am PONG, ping = " + pingPid);
 
             for (int i=0; i < 15; i++) {
-                try {
-                    Thread.sleep(100); //sleeps for 100 ms
-                } catch (Exception e) { }
+                OS.sleep(100); //sleeps for 100 ms
                 KernelMessage message = Kernel.WaitForMessage();
                 System.out.println("  PONG: from: " + pingPid + " to: " + message.getSenderPid() + " what: " + message.getMessageType());
             }
@@ -0,0 +1,39 @@
+/**
+ * Read-only facts about a process that the kernel publishes when it creates the
+ * process. It is immutable and handed over through a volatile field, so OS can answer
+ * calls such as GetPid() from the calling thread without a kernel transition, the way
+ * a vDSO answers them from a page the kernel keeps up to date.
+ */
+public final class ProcessSnapshot {
+
+    private final int pid;
+    private final String name;
+    private final long createdMillis;
+
+    /**
+     * Creates a snapshot
+     * @param pid The process ID
+     * @param name The name other processes look the process up by
+     * @param createdMillis The simulated time the process was created at
+     */
+    public ProcessSnapshot(int pid, String name, long createdMillis) {
+        this.pid = pid;
+        this.name = name;
+        this.createdMillis = createdMillis;
+    }
+
+    //Returns the process ID
+    public int getPid() {
+        return pid;
+    }
+
+    //Returns the name of the process
+    public String getName() {
+        return name;
+    }
+
+    //Returns the simulated time the process was created at
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+}
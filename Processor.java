@@ -0,0 +1,249 @@
+/**
+ * Represents one simulated CPU core. Each core has its own scheduling policy, its own
+ * running process and its own quantum tick, so cores dispatch independently of each
+ * other. A core that runs out of work steals the least urgent process from the
+ * busiest sibling core. Real-time processes are pinned to the core that admitted
+ * them and always run ahead of the policy's processes.
+ */
+public class Processor {
+
+    private final int id;
+    private final Processor[] siblings;
+    private final SchedulingPolicy readyQueue;
+    private final RealTimeClass realTime = new RealTimeClass();
+
+    private UserlandProcess currentProcess;
+    private boolean quantumExpired; //Set by the tick when the current process used its whole quantum
+    private boolean preempted; //Set when more urgent work asked the current process to stop
+    private volatile int queued; //Ready queue length, read without the lock when picking a steal victim
+    private long contextSwitches;
+    private final SchedulerStatistics statistics = new SchedulerStatistics();
+    private final TranslationLookasideBuffer tlb = new TranslationLookasideBuffer();
+
+    /**
+     * Creates a core scheduled by a multilevel feedback queue
+     * @param id The core number
+     * @param siblings Every core of the machine, including this one, used for work stealing
+     */
+    public Processor(int id, Processor[] siblings) {
+        this(id, siblings, new MultilevelFeedbackQueue());
+    }
+
+    /**
+     * Creates a core
+     * @param id The core number
+     * @param siblings Every core of the machine, including this one, used for work stealing
+     * @param policy The policy that orders this core's ready processes
+     */
+    public Processor(int id, Processor[] siblings, SchedulingPolicy policy) {
+        this.id = id;
+        this.siblings = siblings;
+        this.readyQueue = policy;
+    }
+
+    //Returns the core number
+    public int getId() {
+        return id;
+    }
+
+    //Returns this core's TLB
+    public TranslationLookasideBuffer getTlb() {
+        return tlb;
+    }
+
+    //Returns the process running on this core, or null if the core is idle
+    public synchronized UserlandProcess getCurrentProcess() {
+        return currentProcess;
+    }
+
+    //Returns the number of processes waiting in this core's ready queue
+    public int getQueuedCount() {
+        return queued;
+    }
+
+    /**
+     * Admits a real-time process to this core's EDF class
+     * @param rt The process to admit
+     * @return false if admitting it could make the core miss deadlines
+     */
+    public synchronized boolean admit(RealTimeProcess rt) {
+        if (!realTime.admit(rt)) {
+            return false;
+        }
+        rt.setProcessor(this);
+        if (currentProcess == null) {
+            dispatchNext();
+        } else if (realTime.preempts(currentProcess)) {
+            preempted = true;
+            currentProcess.requestStop();
+        }
+        return true;
+    }
+
+    //Returns the total density of the real-time processes admitted to this core
+    public synchronized double getRealTimeDensity() {
+        return realTime.getDensity();
+    }
+
+    //Returns the number of times this core dispatched a process
+    public synchronized long getContextSwitches() {
+        return contextSwitches;
+    }
+
+    //Adds this core's scheduler statistics to the given totals
+    public synchronized void copyStatistics(SchedulerStatistics total) {
+        total.add(statistics);
+    }
+
+    /**
+     * Puts a process on this core's ready queue, dispatching it straight away if the core is idle
+     * @param up - The process to add
+     */
+    public synchronized void enqueue(UserlandProcess up) {
+        up.setProcessor(this);
+        if (up instanceof RealTimeProcess) {
+            realTime.enqueue((RealTimeProcess) up);
+        } else {
+            readyQueue.enqueue(up);
+            queued = readyQueue.size();
+        }
+        if (SchedulerStatistics.ENABLED) {
+            statistics.ready(up, System.nanoTime());
+        }
+        if (currentProcess == null) {
+            dispatchNext();
+        } else if (realTime.preempts(currentProcess) || (!(currentProcess instanceof RealTimeProcess)
+                && !(up instanceof RealTimeProcess) && readyQueue.preempts(up, currentProcess))) {
+            preempted = true;
+            currentProcess.requestStop(); // More urgent work preempts at the next cooperate()
+        }
+    }
+
+    /**
+     * Called on every quantum tick of this core. Real-time jobs are released and stop
+     * lower classes, an idle core looks for work to steal, and a busy one charges the
+     * tick to its process and stops it once its quantum is used up.
+     */
+    public void tick() {
+        synchronized (this) {
+            if (realTime.tick(currentProcess) && currentProcess != null) {
+                preempted = true;
+                currentProcess.requestStop();
+            }
+            if (currentProcess != null) {
+                if (!(currentProcess instanceof RealTimeProcess) && readyQueue.tick(currentProcess)) {
+                    quantumExpired = true;
+                    currentProcess.requestStop();
+                }
+                return;
+            }
+            if (dispatchNext()) {
+                return;
+            }
+        }
+        UserlandProcess stolen = stealWork();
+        if (stolen != null) {
+            enqueue(stolen);
+        }
+    }
+
+    /**
+     * Takes the currently running process and puts it back on the ready queue,
+     * then starts the process the policy picks next. An empty core steals from
+     * its busiest sibling.
+     */
+    public void switchProcess() {
+        switchFrom(null);
+    }
+
+    //Switches processes, unless expected is given and is no longer the one on the CPU
+    private void switchFrom(UserlandProcess expected) {
+        synchronized (this) {
+            if (expected != null && currentProcess != expected) {
+                return;
+            }
+            long now = SchedulerStatistics.ENABLED ? System.nanoTime() : 0;
+            if (SchedulerStatistics.ENABLED && currentProcess != null) {
+                statistics.switchedOut(currentProcess, now, quantumExpired, preempted);
+            }
+            if (currentProcess instanceof RealTimeProcess) {
+                if (!currentProcess.isDone()) {
+                    realTime.switchedOut((RealTimeProcess) currentProcess);
+                }
+            } else if (currentProcess != null && !currentProcess.isDone()
+                    && currentProcess.getState() != UserlandProcess.ProcessState.SLEEPING) {
+                if (quantumExpired) {
+                    readyQueue.quantumExpired(currentProcess);
+                }
+                readyQueue.enqueue(currentProcess);
+                if (SchedulerStatistics.ENABLED) {
+                    statistics.ready(currentProcess, now);
+                }
+            }
+            quantumExpired = false;
+            preempted = false;
+            currentProcess = null;
+            if (dispatchNext()) {
+                return;
+            }
+        }
+
+        // Own queue is empty: steal without holding our lock so two cores can never deadlock
+        UserlandProcess stolen = stealWork();
+        if (stolen != null) {
+            enqueue(stolen);
+        }
+    }
+
+    /**
+     * Called from a process's own thread when its main returns, so the core does not
+     * keep a finished process on the CPU until the next switch
+     * @param up - The process that finished
+     */
+    public void exited(UserlandProcess up) {
+        switchFrom(up);
+    }
+
+    //Starts the next ready process, real-time jobs first, skipping finished ones; returns false if nothing is ready
+    private boolean dispatchNext() {
+        UserlandProcess next = realTime.dequeue();
+        while (next != null && next.isDone()) {
+            next = realTime.dequeue();
+        }
+        if (next == null) {
+            next = readyQueue.dequeue();
+        }
+        while (next != null && next.isDone()) {
+            next = readyQueue.dequeue();
+        }
+        queued = readyQueue.size();
+        if (next == null) {
+            return false;
+        }
+        currentProcess = next;
+        contextSwitches++;
+        if (SchedulerStatistics.ENABLED) {
+            statistics.dispatched(next, System.nanoTime());
+        }
+        next.start();
+        return true;
+    }
+
+    //Removes the least urgent process from the busiest sibling, or returns null if nobody has spare work
+    private UserlandProcess stealWork() {
+        Processor victim = null;
+        for (Processor sibling : siblings) {
+            if (sibling != this && sibling.queued > 0 && (victim == null || sibling.queued > victim.queued)) {
+                victim = sibling;
+            }
+        }
+        return victim == null ? null : victim.giveUpWork();
+    }
+
+    //Hands the ready process this core can best spare to a stealing core
+    private synchronized UserlandProcess giveUpWork() {
+        UserlandProcess up = readyQueue.stealLast();
+        queued = readyQueue.size();
+        return up;
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Earliest-deadline-first scheduling class for RealTimeProcess, one per core.
+ * It always runs ahead of the core's SchedulingPolicy. Admission control only accepts
+ * a process if the total density of the core's real-time processes stays at or below
+ * one, which is the EDF schedulability bound, so admitted jobs meet their deadlines.
+ * Jobs that have used their budget wait on a timing wheel for their next release.
+ */
+public class RealTimeClass {
+
+    private final PriorityQueue<RealTimeProcess> ready =
+            new PriorityQueue<>(Comparator.comparingLong(RealTimeProcess::getAbsoluteDeadline));
+    private final TimingWheel<RealTimeProcess> releases = new TimingWheel<>();
+    private double density;
+
+    /**
+     * Admits a process if the core can still guarantee every deadline, and releases its first job
+     * @param rt The process to admit
+     * @return true if the process was admitted
+     */
+    public boolean admit(RealTimeProcess rt) {
+        if (density + rt.getDensity() > 1.0) {
+            return false;
+        }
+        density += rt.getDensity();
+        release(rt);
+        return true;
+    }
+
+    //Returns the total density of the admitted processes
+    public double getDensity() {
+        return density;
+    }
+
+    /**
+     * Advances the class by one tick: abandons jobs whose deadline passed, releases
+     * the jobs due this tick and charges the tick to a running real-time process
+     * @param running The process on the CPU (may be null)
+     * @return true if the running process must stop, because its budget ran out, its deadline passed,
+     * or a more urgent real-time job is ready
+     */
+    public boolean tick(UserlandProcess running) {
+        long now = releases.getCurrentTick() + 1;
+        while (!ready.isEmpty() && ready.peek().getAbsoluteDeadline() <= now) {
+            RealTimeProcess missed = ready.poll();
+            missed.missDeadline();
+            waitForRelease(missed);
+        }
+        releases.advance(this::release);
+
+        boolean stop = false;
+        if (running instanceof RealTimeProcess) {
+            RealTimeProcess rt = (RealTimeProcess) running;
+            if (rt.hasPendingJob() && rt.getAbsoluteDeadline() <= now) {
+                rt.missDeadline();
+            }
+            stop = !rt.hasPendingJob() || rt.chargeBudget();
+        }
+        return stop || preempts(running);
+    }
+
+    //Returns true when a ready job should take the CPU from the running process
+    public boolean preempts(UserlandProcess running) {
+        if (ready.isEmpty()) {
+            return false;
+        }
+        if (!(running instanceof RealTimeProcess)) {
+            return true;
+        }
+        return ready.peek().getAbsoluteDeadline() < ((RealTimeProcess) running).getAbsoluteDeadline();
+    }
+
+    //Removes the ready job with the earliest deadline, or returns null if none is ready
+    public RealTimeProcess dequeue() {
+        RealTimeProcess rt = ready.poll();
+        if (rt != null) {
+            rt.dispatched();
+        }
+        return rt;
+    }
+
+    /**
+     * Takes back a real-time process leaving the CPU. It stays ready if it was preempted
+     * with budget left, otherwise it waits for its next release.
+     * @param rt The process leaving the CPU
+     */
+    public void switchedOut(RealTimeProcess rt) {
+        if (rt.getState() == UserlandProcess.ProcessState.SLEEPING) {
+            if (!rt.hasPendingJob()) {
+                waitForRelease(rt);
+            }
+            return; // A sleeping job with budget left rejoins through enqueue() on wakeup
+        }
+        if (rt.hasPendingJob()) {
+            ready.add(rt);
+        } else {
+            waitForRelease(rt);
+        }
+    }
+
+    //Makes a woken real-time process ready again if its job still has budget
+    public void enqueue(RealTimeProcess rt) {
+        if (rt.hasPendingJob()) {
+            ready.add(rt);
+        }
+    }
+
+    //Returns true when no real-time job is ready
+    public boolean isEmpty() {
+        return ready.isEmpty();
+    }
+
+    //Files a process on the release wheel; a release that is already due happens on the coming tick
+    private void waitForRelease(RealTimeProcess rt) {
+        releases.schedule(rt, rt.getNextRelease());
+    }
+
+    //Releases the next job; a sleeping process picks it up when it wakes
+    private void release(RealTimeProcess rt) {
+        rt.release(releases.getCurrentTick());
+        if (rt.getState() != UserlandProcess.ProcessState.SLEEPING) {
+            ready.add(rt);
+        }
+    }
+}
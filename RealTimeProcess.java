@@ -1,9 +1,54 @@
 /**
- * Represents a Userland Process that runs for a long time
+ * Represents a Userland Process that runs for a long time.
+ * It belongs to the earliest-deadline-first real-time class: every period a new job is
+ * released that may use up to budget of CPU time and must get it before its deadline.
  * @author Matthew Welsh
  */
 public class RealTimeProcess extends UserlandProcess {
 
+    //Period, budget and relative deadline, in scheduler ticks
+    private final int periodTicks;
+    private final int budgetTicks;
+    private final int deadlineTicks;
+
+    //State of the current job
+    private long absoluteDeadline;
+    private long nextRelease;
+    private int remainingBudget;
+    private long releaseNanos;
+    private boolean awaitingDispatch;
+
+    //Per-process real-time statistics
+    private long jobsReleased;
+    private long missedDeadlines;
+    private long dispatches;
+    private long totalDispatchLatencyNanos;
+    private long maxDispatchLatencyNanos;
+
+    /**
+     * Creates a real-time process with a 100 ms period, a 20 ms budget and an implicit deadline
+     */
+    public RealTimeProcess() {
+        this(100, 20, 100);
+    }
+
+    /**
+     * Creates a real-time process
+     * @param periodMillis How often a new job is released
+     * @param budgetMillis CPU time each job may use
+     * @param deadlineMillis Time after the release by which the job must have run
+     * @throws IllegalArgumentException if the budget does not fit before the deadline, or the deadline is after the period
+     */
+    public RealTimeProcess(int periodMillis, int budgetMillis, int deadlineMillis) {
+        this.periodTicks = toTicks(periodMillis);
+        this.budgetTicks = toTicks(budgetMillis);
+        this.deadlineTicks = toTicks(deadlineMillis);
+        if (budgetTicks > deadlineTicks || deadlineTicks > periodTicks) {
+            throw new IllegalArgumentException("Need budget <= deadline <= period");
+        }
+        setPriority(OS.Priority.HIGH);
+    }
+
     /**
      * Runs for a long time, calls cooperate(),
      * and sleeps for 50 milliseconds after each iteration.
@@ -14,9 +59,84 @@ public class RealTimeProcess extends UserlandProcess {
         while (true) {
             System.out.println("Realtime");
             cooperate(); //cooperates with the operating system
-            try {
-                Thread.sleep(50); //sleeps for 50 ms
-            } catch (Exception e) { }
+            OS.sleep(50); //sleeps for 50 ms
         }
     }
+
+    //Rounds milliseconds up to whole scheduler ticks, at least one
+    private static int toTicks(int millis) {
+        return Math.max(1, (millis + Scheduler.TICK_MILLIS - 1) / Scheduler.TICK_MILLIS);
+    }
+
+    //Fraction of a CPU the process may demand, used for admission control
+    public double getDensity() {
+        return (double) budgetTicks / deadlineTicks;
+    }
+
+    //Releases a new job at the given tick
+    void release(long now) {
+        absoluteDeadline = now + deadlineTicks;
+        nextRelease = now + periodTicks;
+        remainingBudget = budgetTicks;
+        releaseNanos = System.nanoTime();
+        awaitingDispatch = true;
+        jobsReleased++;
+    }
+
+    //Records the dispatch latency the first time the current job gets the CPU
+    void dispatched() {
+        if (awaitingDispatch) {
+            awaitingDispatch = false;
+            long latency = System.nanoTime() - releaseNanos;
+            dispatches++;
+            totalDispatchLatencyNanos += latency;
+            maxDispatchLatencyNanos = Math.max(maxDispatchLatencyNanos, latency);
+        }
+    }
+
+    //Charges one tick of CPU to the current job and returns true when its budget is used up
+    boolean chargeBudget() {
+        return --remainingBudget <= 0;
+    }
+
+    //Abandons the current job because its deadline passed
+    void missDeadline() {
+        missedDeadlines++;
+        remainingBudget = 0;
+    }
+
+    //Returns true while the current job still has budget to run
+    boolean hasPendingJob() {
+        return remainingBudget > 0;
+    }
+
+    //Absolute tick by which the current job must finish
+    long getAbsoluteDeadline() {
+        return absoluteDeadline;
+    }
+
+    //Tick at which the next job is released
+    long getNextRelease() {
+        return nextRelease;
+    }
+
+    //Returns the number of jobs released so far
+    public long getJobsReleased() {
+        return jobsReleased;
+    }
+
+    //Returns the number of jobs that did not get their budget before their deadline
+    public long getMissedDeadlines() {
+        return missedDeadlines;
+    }
+
+    //Returns the mean time from a job's release to its first dispatch, in nanoseconds
+    public long getAverageDispatchLatencyNanos() {
+        return dispatches == 0 ? 0 : totalDispatchLatencyNanos / dispatches;
+    }
+
+    //Returns the worst time from a job's release to its first dispatch, in nanoseconds
+    public long getMaxDispatchLatencyNanos() {
+        return maxDispatchLatencyNanos;
+    }
 }
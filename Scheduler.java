@@ -1,6 +1,9 @@
 import java.util.*;
 import java.time.Clock;
 import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * Manages the scheduling of the Userland Process
@@ -10,52 +13,95 @@ public class Scheduler {
 
     private static Clock clock = Clock.systemDefaultZone();
 
+    //In virtual time mode the clock only moves by whole ticks driven by the simulation
+    private static boolean virtualTime;
+    private static Random random = new Random();
+
     /**
-     * Private static members to store the list of scheduler queues, the timer instance,
-     * the currently running process, and the Process ID counter
+     * Private static members to store the simulated cores, the sleep wheel,
+     * the timer instance, and the Process ID counter
      */
-    private static LinkedList<UserlandProcess> highPriorityQueue;
-    private static LinkedList<UserlandProcess> interactivePriorityQueue;
-    private static LinkedList<UserlandProcess> lowPriorityQueue;
-    private static LinkedList<UserlandProcess> sleepProcesses;
-    private static LinkedList<UserlandProcess> readyProcesses;
+    private static Processor[] processors;
+    private static TimingWheel<UserlandProcess> sleepProcesses;
+
+    //Length of one timer tick; quanta and sleeps are measured in these
+    public static final int TICK_MILLIS = 10;
 
     private Kernel kernel;
-    private Random random;
     private static Timer timer;
-    private static UserlandProcess currentProcess;
-    private static OS.Priority currentPriority;
-    private static int nextPid = 1; //Static Process ID counter
+    private static final AtomicInteger nextPid = new AtomicInteger(1); //Static Process ID counter, taken by every core
     private Map<Integer, UserlandProcess> processes;
 
 
     /**
-     * Constructor that initializes the Scheduler and
-     * schedules to interrupt every 250ms
+     * Constructor that initializes the Scheduler from the "os.cores" (1 by default),
+     * "os.policy" (mlfq by default), "os.clock" (real | virtual) and "os.seed" system properties.
+     * With "os.stats" on, "os.stats.period" prints a SchedulerStatistics report that often.
      */
     public Scheduler() {
+        this(Integer.getInteger("os.cores", 1), () -> SchedulingPolicy.create(System.getProperty("os.policy")),
+                "virtual".equalsIgnoreCase(System.getProperty("os.clock")));
+        if (Long.getLong("os.seed") != null) {
+            random = new Random(Long.getLong("os.seed"));
+        }
+        if (SchedulerStatistics.ENABLED && Long.getLong("os.stats.period") != null) {
+            SchedulerStatistics.startReporting(Long.getLong("os.stats.period"));
+        }
+    }
+
+    /**
+     * Constructor that initializes a Scheduler for an N-core machine on the wall clock
+     * @param cores The number of simulated cores
+     * @param policies Creates the scheduling policy of each core
+     */
+    public Scheduler(int cores, Supplier<SchedulingPolicy> policies) {
+        this(cores, policies, false);
+    }
 
-        // Queues for processes with different priorities
-        highPriorityQueue = new LinkedList<>();
-        interactivePriorityQueue = new LinkedList<>();
-        lowPriorityQueue = new LinkedList<>();
+    /**
+     * Constructor that initializes a Scheduler for an N-core machine. On the wall clock every
+     * core is interrupted every TICK_MILLIS. In virtual time there is no timer: each cooperate()
+     * costs one tick, and when every core is idle time jumps straight to the next wakeup, so a
+     * single-core run is fully deterministic and finishes as fast as the host can execute it.
+     * @param cores The number of simulated cores
+     * @param policies Creates the scheduling policy of each core
+     * @param virtualTime true to run on a VirtualClock instead of the wall clock
+     */
+    public Scheduler(int cores, Supplier<SchedulingPolicy> policies, boolean virtualTime) {
 
-        // Queues for sleeping and ready processes
-        sleepProcesses = new LinkedList<>();
-        readyProcesses = new LinkedList<>();
+        // One scheduling policy and running process per core
+        processors = new Processor[cores];
+        for (int i = 0; i < cores; i++) {
+            processors[i] = new Processor(i, processors, policies.get());
+        }
+
+        // Timing wheel holding the sleeping processes until their wakeup tick
+        sleepProcesses = new TimingWheel<>();
+
+        Scheduler.virtualTime = virtualTime;
+        if (virtualTime) {
+            clock = new VirtualClock();
+            return;
+        }
 
-        random = new Random();
         timer = new Timer();
-        //currentProcess = null;
 
         timer.scheduleAtFixedRate(new TimerTask() {
             @Override
             public void run() {
-                if (currentProcess != null) {
-                    currentProcess.requestStop();
-                }
+                wakeupSleepingProcesses();
             }
-        }, 0, 250);
+        }, 0, TICK_MILLIS);
+
+        // Each core has its own quantum timer, staggered so they do not all fire together
+        for (Processor processor : processors) {
+            timer.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    processor.tick();
+                }
+            }, (long) TICK_MILLIS * processor.getId() / cores, TICK_MILLIS);
+        }
     }
 
     //Constructs a Scheduler with a reference to the Kernel.
@@ -94,6 +140,64 @@ public class Scheduler {
         return clock.instant();
     }
 
+    //Returns the current simulated time in milliseconds
+    public static long currentTimeMillis() {
+        return clock.millis();
+    }
+
+    //Returns true when the Scheduler runs on virtual time
+    public static boolean isVirtualTime() {
+        return virtualTime;
+    }
+
+    //Returns the random source seeded from os.seed, for reproducible workloads
+    public static Random getRandom() {
+        return random;
+    }
+
+    /**
+     * Runs one virtual tick: moves the clock, runs every core's quantum tick, then
+     * wakes the sleepers that are due. Virtual ticks hold the Scheduler class lock,
+     * so a process dispatched by a tick cannot charge its own tick until this one is done.
+     */
+    private static synchronized void tick() {
+        ((VirtualClock) clock).advance(TICK_MILLIS);
+        for (Processor processor : processors) {
+            processor.tick();
+        }
+        wakeupSleepingProcesses();
+    }
+
+    //Charges one tick of CPU time to the calling process in virtual time; does nothing on the wall clock
+    public static void consumeTick() {
+        if (virtualTime) {
+            tick();
+        }
+    }
+
+    //In virtual time, jumps the clock forward while every core is idle and something is due to wake up
+    public static synchronized void skipIdleTime() {
+        if (!virtualTime) {
+            return;
+        }
+        while (true) {
+            boolean pending;
+            synchronized (sleepProcesses) {
+                pending = sleepProcesses.size() > 0;
+            }
+            for (Processor processor : processors) {
+                if (processor.getCurrentProcess() != null) {
+                    return;
+                }
+                pending |= processor.getRealTimeDensity() > 0;
+            }
+            if (!pending) {
+                return;
+            }
+            tick();
+        }
+    }
+
     /**
      * Adds a userland process to the list and starts it if nothing else is running.
      * @param up - The userland process to add
@@ -104,123 +208,129 @@ public class Scheduler {
     }
 
     /**
-     * Creates a new Userland process of a specific priority
+     * Creates a new Userland process of a specific priority on the least loaded core
      * @param up
      * @param priority
      * @return The pid
      */
     public int CreateProcess(UserlandProcess up, OS.Priority priority) {
+        return CreateProcess(up, priority, kp -> true);
+    }
+
+    /**
+     * Creates a new Userland process, letting the caller set up its kernel side before it can run
+     * @param up The process
+     * @param priority Its priority
+     * @param setup Called with the new KernelandProcess before the process is queued; returning false abandons it
+     * @return The pid, or -1 if the process was created before or the setup failed; after a failed setup the
+     *         process's thread ends without running main()
+     */
+    public int CreateProcess(UserlandProcess up, OS.Priority priority, Predicate<KernelandProcess> setup) {
 
-        currentProcess = up;
-        currentPriority = priority;
 //        //up.setState(UserlandProcess.ProcessState.RUNNING);
-//        up.setPid(nextPid++);
 
-        switch (priority) {
-            case HIGH:
-                highPriorityQueue.add(up);
-                break;
-            case INTERACTIVE:
-                interactivePriorityQueue.add(up);
-                break;
-            case LOW:
-                lowPriorityQueue.add(up);
-                break;
-            default:
-                break;
+        if (up.isDone() || up.getKernelandProcess() != null) {
+            return -1; // A process can only be created once
+        }
+
+        // Publish the pid before the process can run, so its GetPid() never needs the kernel
+        int pid = nextPid.getAndIncrement();
+        String name = up.getName();
+        if (!OS.addProcessName(name, pid)) {
+            name = name + "#" + pid; // A live process already has the name, so this one is told apart by its pid
+            OS.addProcessName(name, pid);
+            up.setName(name);
+        }
+        up.setPid(pid);
+        up.setKernelandProcess(new KernelandProcess(up, pid));
+        up.setSnapshot(new ProcessSnapshot(pid, name, currentTimeMillis()));
+        Kernel.addProcess(pid, up.getKernelandProcess());
+        if (!setup.test(up.getKernelandProcess())) {
+            discard(up, name, pid);
+            return -1;
         }
 
-        if (currentProcess != null) {
-            SwitchProcess();
+        if (up instanceof RealTimeProcess) {
+            if (admitRealTime((RealTimeProcess) up) == -1) {
+                discard(up, name, pid);
+                return -1;
+            }
+        } else {
+            up.setPriority(priority);
+            up.resetQuantumTicks();
+
+            Processor target = processors[0];
+            for (Processor processor : processors) {
+                if (load(processor) < load(target)) {
+                    target = processor;
+                }
+            }
+            target.enqueue(up);
         }
-        return nextPid;
+        return pid;
+    }
+
+    //Takes back everything CreateProcess gave a process it then failed to create, and ends its thread
+    private static void discard(UserlandProcess up, String name, int pid) {
+        OS.removeProcessName(name, pid);
+        Kernel.removeProcess(pid, up.getKernelandProcess());
+        up.setKernelandProcess(null);
+        up.setSnapshot(null);
+        up.setPid(0);
+        up.discard();
     }
 
     /**
-     * Takes the currently running process and puts it at the end,
-     * then starts the next process
+     * Admits a real-time process to the first core with enough spare capacity for its deadlines
+     * @param rt The real-time process
+     * @return The pid, or -1 if no core can take it without risking missed deadlines
      */
-    public void SwitchProcess() {
-
-        if (currentProcess != null) {
-            switch (currentPriority) {
-                case HIGH:
-                    highPriorityQueue.addLast(currentProcess);
-                    break;
-                case INTERACTIVE:
-                    interactivePriorityQueue.addLast(currentProcess);
-                    break;
-                case LOW:
-                    lowPriorityQueue.addLast(currentProcess);
-                    break;
-                default:
-                    break;
+    private int admitRealTime(RealTimeProcess rt) {
+        for (Processor processor : processors) {
+            if (processor.admit(rt)) {
+                return rt.getPid();
             }
         }
+        System.out.println("Real-time process rejected: not enough capacity to meet its deadlines.");
+        return -1;
+    }
 
-        int QueueIndex = random.nextInt(3);
-        LinkedList<UserlandProcess> selectedQueue = null;
-        switch (QueueIndex) {
-            case 0:
-                    //System.out.println("high");
-                    selectedQueue = highPriorityQueue;
-                break;
-            case 1:
-                    //System.out.println("medium");
-                    selectedQueue = interactivePriorityQueue;
-                break;
-            case 2:
-                    //System.out.println("low");
-                    selectedQueue = lowPriorityQueue;
-                break;
-            default:
-                break;
-        }
-
-        // Start the next process from the selected queue
-        if (selectedQueue != null && !selectedQueue.isEmpty()) {
-            currentProcess = selectedQueue.poll();
-        }
-
-        if (currentProcess != null && !currentProcess.isDone()) {
-            currentProcess.start();
-        }
-
-//        wakeupSleepingProcesses();
-    }
-
-    //DELETE SOON!
-
-//    /**
-//     * An accessor used to retrieve the high Priority queue
-//     * @return highPriorityQueue - The high Priority queue
-//     */
-//    public LinkedList<UserlandProcess> getHighPriorityQueue() {
-//        return highPriorityQueue;
-//    }
-//
-//    /**
-//     * An accessor used to retrieve the medium Priority queue
-//     * @return mediumPriorityQueue - The medium Priority queue
-//     */
-//    public LinkedList<UserlandProcess> getInteractivePriorityQueue() {
-//        return interactivePriorityQueue;
-//    }
-//
-//    /**
-//     * An accessor used to retrieve the low Priority queue
-//     * @return lowPriorityQueue - The low Priority queue
-//     */
-//    public LinkedList<UserlandProcess> getLowPriorityQueue() {
-//        return lowPriorityQueue;
-//    }
+    //Number of processes a core is running or has queued
+    private static int load(Processor processor) {
+        return processor.getQueuedCount() + (processor.getCurrentProcess() == null ? 0 : 1);
+    }
 
     /**
-     * An accessor used to retrieve the currently running process
+     * Switches processes on the core of the process that made the call
+     */
+    public void SwitchProcess() {
+        currentProcessor().switchProcess();
+    }
+
+    /**
+     * An accessor used to retrieve the currently running process on
+     * the core of the calling process (core 0 for non-process threads)
      * @return currentProcess - The currently running process
      */
     public static UserlandProcess getCurrentProcess() {
-        return currentProcess;
+        return currentProcessor().getCurrentProcess();
+    }
+
+    //An accessor used to retrieve the simulated cores
+    public static Processor[] getProcessors() {
+        return processors;
+    }
+
+    //Finds the core the calling process (or the process the kernel is serving) runs on
+    private static Processor currentProcessor() {
+        UserlandProcess caller = UserlandProcess.getRunningProcess();
+        if (caller == null) {
+            caller = Kernel.getCaller();
+        }
+        if (caller != null && caller.getProcessor() != null) {
+            return caller.getProcessor();
+        }
+        return processors[0];
     }
 
     /**
@@ -229,27 +339,34 @@ public class Scheduler {
      */
     public void sleep(int milliseconds) {
 
-        UserlandProcess process = getCurrentProcess(); // Obtain the current process
-        Instant currentTime = Instant.now(); // Get the current time as an Instant
-
-        Instant wakeupTime = currentTime.plusMillis(milliseconds);
+        Processor processor = currentProcessor();
+        UserlandProcess process = processor.getCurrentProcess(); // Obtain the current process
+        Instant wakeupTime = getCurrentTime().plusMillis(milliseconds);
 
         process.setWakeupTime(wakeupTime);
         process.setState(UserlandProcess.ProcessState.SLEEPING);
 
-        sleepProcesses.add(process);
+        // Round up, plus one for the part of the current tick already gone, so a process never wakes before its wakeup time
+        long ticks = (milliseconds + TICK_MILLIS - 1) / TICK_MILLIS + 1;
+        synchronized (sleepProcesses) {
+            sleepProcesses.schedule(process, sleepProcesses.getCurrentTick() + ticks);
+        }
 
         // Switch to the next process
-        SwitchProcess();
+        processor.switchProcess();
     }
 
-    //Wakes up sleeping processes whose wakeup time has passed
-    public void wakeupSleepingProcesses() {
-        Instant currentTime = getCurrentTime(); // Get current system time
-        while (!sleepProcesses.isEmpty() && sleepProcesses.peek().getWakeupTime().isBefore(currentTime)) {
-            UserlandProcess process = sleepProcesses.poll();
-            process.setState(UserlandProcess.ProcessState.READY); // Transition the process to the ready state
-            readyProcesses.add(process); // Add the process to the ready queue
+    //Advances the sleep wheel one tick and puts the woken processes back on their core; only the timer path may call it
+    private static void wakeupSleepingProcesses() {
+        synchronized (sleepProcesses) {
+            sleepProcesses.advance(Scheduler::wakeup);
         }
     }
+
+    //Makes a woken process ready again on the core it last ran on
+    private static void wakeup(UserlandProcess process) {
+        process.setState(UserlandProcess.ProcessState.READY); // Transition the process to the ready state
+        Processor processor = process.getProcessor() != null ? process.getProcessor() : processors[0];
+        processor.enqueue(process); // Add the process back to its priority level
+    }
 }
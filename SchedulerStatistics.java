@@ -0,0 +1,193 @@
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Counters and latency histograms for the Scheduler and the Kernel. Each Processor owns
+ * one instance and updates it while it already holds its own lock, so recording is a
+ * System.nanoTime() and a few plain field writes with no atomics and no allocation.
+ * The kernel thread is the only writer of the switch latency; per-call counters live in
+ * the kernel's SystemCallTable.
+ * Statistics are switched on with the "os.stats" system property; when it is off the
+ * checks are constant false and the JIT removes them from the dispatch path.
+ * Setting "os.stats.period" (milliseconds) prints a report that often.
+ */
+public class SchedulerStatistics {
+
+    //True when the simulator was started with -Dos.stats=true
+    public static final boolean ENABLED = Boolean.getBoolean("os.stats");
+
+    //Written only by the kernel thread; a report may read them one call behind
+    private static final LatencyHistogram switchLatency = new LatencyHistogram();
+
+    private static Timer reporter;
+
+    private final LatencyHistogram readyWait = new LatencyHistogram();
+    private long dispatches;
+    private long quantumExpiries;
+    private long preemptions;
+    private long voluntarySwitches;
+    private long exits;
+    private long cpuTimeNanos;
+
+    /**
+     * Records that a process was put on a ready queue
+     * @param up The process that became ready
+     * @param now The current System.nanoTime()
+     */
+    public void ready(UserlandProcess up, long now) {
+        up.setReadySince(now);
+    }
+
+    /**
+     * Records a dispatch and how long the process waited on the ready queue
+     * @param up The process being started
+     * @param now The current System.nanoTime()
+     */
+    public void dispatched(UserlandProcess up, long now) {
+        dispatches++;
+        if (up.getReadySince() != 0) {
+            long waited = now - up.getReadySince();
+            readyWait.record(waited);
+            up.addReadyWait(waited);
+            up.setReadySince(0);
+        }
+        up.setDispatchedAt(now);
+    }
+
+    /**
+     * Records a process leaving the CPU and charges it the time it ran
+     * @param up The process leaving the CPU
+     * @param now The current System.nanoTime()
+     * @param quantumExpired True when the tick stopped it because its quantum was used up
+     * @param preempted True when more urgent work stopped it
+     */
+    public void switchedOut(UserlandProcess up, long now, boolean quantumExpired, boolean preempted) {
+        long ran = now - up.getDispatchedAt();
+        up.addCpuTime(ran);
+        cpuTimeNanos += ran;
+        if (up.isDone()) {
+            exits++;
+        } else if (quantumExpired) {
+            quantumExpiries++;
+        } else if (preempted) {
+            preemptions++;
+        } else {
+            voluntarySwitches++;
+        }
+    }
+
+    /**
+     * Records the time from OS.switchToKernel() until the kernel handed the CPU on
+     * @param nanos The hand-over latency in nanoseconds
+     */
+    public static void recordSwitchLatency(long nanos) {
+        switchLatency.record(nanos);
+    }
+
+    //Adds another core's statistics to this one
+    void add(SchedulerStatistics other) {
+        readyWait.add(other.readyWait);
+        dispatches += other.dispatches;
+        quantumExpiries += other.quantumExpiries;
+        preemptions += other.preemptions;
+        voluntarySwitches += other.voluntarySwitches;
+        exits += other.exits;
+        cpuTimeNanos += other.cpuTimeNanos;
+    }
+
+    /**
+     * Adds up the statistics of every core into a new instance
+     * @return A copy that later dispatches do not change
+     */
+    public static SchedulerStatistics snapshot() {
+        SchedulerStatistics total = new SchedulerStatistics();
+        Processor[] processors = Scheduler.getProcessors();
+        if (processors != null) {
+            for (Processor processor : processors) {
+                processor.copyStatistics(total);
+            }
+        }
+        return total;
+    }
+
+    //Returns the time processes waited on a ready queue before being dispatched
+    public LatencyHistogram getReadyWait() {
+        return readyWait;
+    }
+
+    //Returns the number of times a process was dispatched
+    public long getDispatches() {
+        return dispatches;
+    }
+
+    //Returns the number of switches forced because a quantum ran out
+    public long getQuantumExpiries() {
+        return quantumExpiries;
+    }
+
+    //Returns the number of switches forced because more urgent work became ready
+    public long getPreemptions() {
+        return preemptions;
+    }
+
+    //Returns the number of switches a process asked for itself, by sleeping or calling SwitchProcess
+    public long getVoluntarySwitches() {
+        return voluntarySwitches;
+    }
+
+    //Returns the number of processes that left the CPU because main() returned
+    public long getExits() {
+        return exits;
+    }
+
+    //Returns the CPU time of every process that has been switched out so far
+    public long getCpuTimeNanos() {
+        return cpuTimeNanos;
+    }
+
+    //Returns the time from OS.switchToKernel() until the kernel started the next process
+    public static LatencyHistogram getSwitchLatency() {
+        return switchLatency;
+    }
+
+    /**
+     * Builds a human readable report of every core and the kernel
+     * @return The report
+     */
+    public static String report() {
+        SchedulerStatistics total = snapshot();
+        StringBuilder report = new StringBuilder("Scheduler statistics\n");
+        report.append("  dispatches ").append(total.dispatches)
+                .append(", quantum expiries ").append(total.quantumExpiries)
+                .append(", preemptions ").append(total.preemptions)
+                .append(", voluntary ").append(total.voluntarySwitches)
+                .append(", exits ").append(total.exits).append('\n');
+        report.append("  cpu time ").append(total.cpuTimeNanos / 1000000).append("ms\n");
+        report.append("  ready wait     ").append(total.readyWait).append('\n');
+        report.append("  switch latency ").append(switchLatency).append('\n');
+        return report.append(OS.getInstance().getSystemCalls().report()).toString();
+    }
+
+    /**
+     * Prints the report every period on a daemon timer, replacing any earlier reporter
+     * @param periodMillis Time between two reports in milliseconds
+     */
+    public static synchronized void startReporting(long periodMillis) {
+        stopReporting();
+        reporter = new Timer("scheduler-statistics", true);
+        reporter.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                System.out.print(report());
+            }
+        }, periodMillis, periodMillis);
+    }
+
+    //Stops the periodic report
+    public static synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.cancel();
+            reporter = null;
+        }
+    }
+}
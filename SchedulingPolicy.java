@@ -0,0 +1,63 @@
+/**
+ * Decides which ready process a core runs next. Every Processor owns one policy
+ * instance and calls it under the core's lock, so implementations need no locking
+ * of their own. The policy is chosen with the "os.policy" system property
+ * (mlfq | cfs) or passed to the Scheduler constructor.
+ */
+public interface SchedulingPolicy {
+
+    /**
+     * Makes a process ready to run
+     * @param up - The process to add
+     */
+    void enqueue(UserlandProcess up);
+
+    /**
+     * Removes the process that should run next
+     * @return The next process, or null if nothing is ready
+     */
+    UserlandProcess dequeue();
+
+    /**
+     * Removes the ready process this core can best spare, for a stealing core
+     * @return The stolen process, or null if nothing is ready
+     */
+    UserlandProcess stealLast();
+
+    /**
+     * Charges one timer tick to the running process
+     * @param running - The process that was on the CPU when the tick fired (may be null)
+     * @return true if the running process should be preempted
+     */
+    boolean tick(UserlandProcess running);
+
+    /**
+     * Called when a process is switched out after tick() asked for it to be preempted
+     * @param up - The preempted process, before it is enqueued again
+     */
+    void quantumExpired(UserlandProcess up);
+
+    /**
+     * Decides if a process that just became ready should preempt the running one
+     * @param ready - The process that became ready
+     * @param running - The process on the CPU
+     * @return true if the running process should be asked to stop
+     */
+    boolean preempts(UserlandProcess ready, UserlandProcess running);
+
+    //Returns the number of ready processes
+    int size();
+
+    //Returns true when no process is ready
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    //Creates a policy from its name, as used by the os.policy property
+    static SchedulingPolicy create(String name) {
+        if (name != null && name.equalsIgnoreCase("cfs")) {
+            return new FairSchedulingPolicy();
+        }
+        return new MultilevelFeedbackQueue();
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Swap space for the Pager: a file of page-sized slots, memory mapped through its
+ * FileChannel so a page moves between physical memory and its slot with one bulk
+ * copy, optionally fronted by a CompressedSwap tier that keeps the pages that
+ * compress in RAM, so only the rest reach the file. Free slots are kept on a stack that hands out the lowest slots first, so
+ * pages evicted one after another land next to each other in the file. The size
+ * comes from the "os.swap" system property (bytes, with an optional K, M or G
+ * suffix, 4M by default) and the file from "os.swap.file"; without one a temporary
+ * file is used and deleted on exit. Slots are handed out and given back under the
+ * pager's lock; the PageOutDaemon writes its batches through the channel without it.
+ */
+public class SwapFile {
+
+    private final int pageSize;
+    private final int slots;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final CompressedSwap compressed; //Null when pages always go to the file
+
+    //Free slots, the next one to hand out on top
+    private final int[] freeSlots;
+    private int freeCount;
+    //Processes sharing each slot beyond the first, since a fork copied the page table holding it
+    private final int[] extraSharers;
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    /**
+     * Creates swap space sized and placed as the os.swap and os.swap.file system properties say,
+     * with a compressed tier as big as the os.zswap property says
+     * @param pageSize The size of a page and so of a slot
+     * @param defaultCompressedPool The compressed tier's size when os.zswap is not set
+     */
+    public SwapFile(int pageSize, long defaultCompressedPool) {
+        this(pageSize, (int) (PhysicalMemory.parseSize(System.getProperty("os.swap", "4M")) / pageSize),
+                System.getProperty("os.swap.file"),
+                PhysicalMemory.parseSize(System.getProperty("os.zswap", Long.toString(defaultCompressedPool))));
+    }
+
+    /**
+     * Creates swap space
+     * @param pageSize The size of a page and so of a slot
+     * @param slots The number of pages the file holds
+     * @param file The file to swap to, or null for a temporary file
+     * @param compressedPool The bytes of RAM the compressed tier may use, 0 for no tier
+     */
+    public SwapFile(int pageSize, int slots, String file, long compressedPool) {
+        if (slots <= 0 || (long) slots * pageSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Swap must hold between 1 page and 2GB: " + slots + " pages");
+        }
+        this.pageSize = pageSize;
+        this.slots = slots;
+        try {
+            File backing = file == null ? File.createTempFile("swap", ".bin") : new File(file);
+            if (file == null) {
+                backing.deleteOnExit();
+            }
+            RandomAccessFile access = new RandomAccessFile(backing, "rw");
+            access.setLength((long) slots * pageSize);
+            channel = access.getChannel(); // Stays open for the life of the machine, closing it would close the file
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slots * pageSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open the swap file " + file, e);
+        }
+        freeSlots = new int[slots];
+        for (int i = 0; i < slots; i++) {
+            freeSlots[i] = slots - 1 - i;
+        }
+        freeCount = slots;
+        extraSharers = new int[slots];
+        compressed = compressedPool > 0 ? new CompressedSwap(pageSize, slots, compressedPool) : null;
+    }
+
+    //Returns the channel the swap file is mapped through
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Takes a free slot
+     * @return The slot, or -1 if swap is full
+     */
+    public int allocateSlot() {
+        return freeCount == 0 ? -1 : freeSlots[--freeCount];
+    }
+
+    //Gives a slot back, or one process's share of it when it is shared
+    public void freeSlot(int slot) {
+        if (slot < 0 || slot >= slots) {
+            throw new IllegalArgumentException("Swap slot " + slot + " does not exist");
+        }
+        if (extraSharers[slot] > 0) {
+            extraSharers[slot]--;
+            return;
+        }
+        if (compressed != null) {
+            compressed.remove(slot);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    //Adds a process to the ones sharing a slot, so the slot is only freed once each of them has freed it
+    public void shareSlot(int slot) {
+        extraSharers[slot]++;
+    }
+
+    //Returns true if more than one process has the slot, so none of them may write it
+    public boolean isShared(int slot) {
+        return extraSharers[slot] > 0;
+    }
+
+    //Returns a view of one slot of the mapped file
+    private ByteBuffer slot(int slot) {
+        ByteBuffer view = mapped.duplicate();
+        ((Buffer) view).limit((slot + 1) * pageSize);
+        ((Buffer) view).position(slot * pageSize);
+        return view;
+    }
+
+    /**
+     * Copies a page of physical memory out to a slot, in the compressed tier if it takes the page
+     * @param memory The physical memory
+     * @param physicalAddress The address of the page
+     * @param slot The slot to write
+     */
+    public void write(PhysicalMemory memory, long physicalAddress, int slot) {
+        if (writeCompressed(memory, physicalAddress, slot)) {
+            return;
+        }
+        memory.read(physicalAddress, slot(slot), pageSize);
+        bytesOut.addAndGet(pageSize);
+    }
+
+    /**
+     * Offers a page to the compressed tier only
+     * @param memory The physical memory
+     * @param physicalAddress The address of the page
+     * @param slot The slot the page belongs in
+     * @return true if the tier kept it, false if it still has to be written to the file
+     */
+    public boolean writeCompressed(PhysicalMemory memory, long physicalAddress, int slot) {
+        return compressed != null && compressed.store(memory, physicalAddress, slot);
+    }
+
+    //Returns true if the slot's page is in the compressed tier rather than the file
+    public boolean isCompressed(int slot) {
+        return compressed != null && compressed.contains(slot);
+    }
+
+    /**
+     * Writes whole pages to consecutive slots of the file with one positioned write through the channel
+     * @param pages The pages, from the buffer's position to its limit
+     * @param firstSlot The slot the first page goes to
+     * @throws IOException if the write fails
+     */
+    public void write(ByteBuffer pages, int firstSlot) throws IOException {
+        int length = pages.remaining();
+        if (length % pageSize != 0 || firstSlot < 0 || firstSlot + length / pageSize > slots) {
+            throw new IllegalArgumentException(length / pageSize + " pages do not fit at swap slot " + firstSlot);
+        }
+        if (compressed != null) {
+            for (int slot = firstSlot; slot < firstSlot + length / pageSize; slot++) {
+                compressed.remove(slot); // The tier's copy would shadow the one written now
+            }
+        }
+        long position = (long) firstSlot * pageSize;
+        while (pages.hasRemaining()) {
+            position += channel.write(pages, position);
+        }
+        bytesOut.addAndGet(length);
+    }
+
+    /**
+     * Copies a slot into a page of physical memory, from the compressed tier if it holds the page
+     * @param memory The physical memory
+     * @param physicalAddress The address of the page
+     * @param slot The slot to read
+     */
+    public void read(PhysicalMemory memory, long physicalAddress, int slot) {
+        if (compressed != null && compressed.load(memory, physicalAddress, slot)) {
+            return;
+        }
+        memory.write(physicalAddress, slot(slot), pageSize);
+        bytesIn.addAndGet(pageSize);
+    }
+
+    /**
+     * Reads consecutive slots of the file with one positioned read through the channel
+     * @param pages Receives the pages, from its position up to its limit
+     * @param firstSlot The slot of the first page
+     * @throws IOException if the read fails
+     */
+    public void read(ByteBuffer pages, int firstSlot) throws IOException {
+        int length = pages.remaining();
+        if (length % pageSize != 0 || firstSlot < 0 || firstSlot + length / pageSize > slots) {
+            throw new IllegalArgumentException(length / pageSize + " pages do not fit at swap slot " + firstSlot);
+        }
+        long position = (long) firstSlot * pageSize;
+        while (pages.hasRemaining()) {
+            int read = channel.read(pages, position);
+            if (read < 0) {
+                throw new IOException("Swap file ends before slot " + (firstSlot + length / pageSize));
+            }
+            position += read;
+        }
+        bytesIn.addAndGet(length);
+    }
+
+    //Returns the number of slots
+    public int getSlots() {
+        return slots;
+    }
+
+    //Returns the number of slots holding a page
+    public int getUsedSlots() {
+        return slots - freeCount;
+    }
+
+    //Returns the compressed tier, or null if there is none
+    public CompressedSwap getCompressed() {
+        return compressed;
+    }
+
+    //Returns the compressed tier's use and how many pages each tier served, or nothing without a tier
+    public String report() {
+        if (compressed == null) {
+            return "";
+        }
+        long fromFile = bytesIn.get() / pageSize;
+        long toFile = bytesOut.get() / pageSize;
+        long loads = compressed.getLoads();
+        long stores = compressed.getStores();
+        return compressed.report() + String.format("swap tiers: %.1f%% of page-outs kept in RAM, %.1f%% of page-ins served from RAM%n",
+                stores + toFile == 0 ? 0.0 : 100.0 * stores / (stores + toFile),
+                loads + fromFile == 0 ? 0.0 : 100.0 * loads / (loads + fromFile));
+    }
+
+    //Returns the number of bytes read back from the swap file
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    //Returns the number of bytes written to the swap file
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+}
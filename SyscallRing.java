@@ -0,0 +1,196 @@
+/**
+ * A process's submission and completion rings for batched system calls.
+ * The process fills submission entries with the prepare methods, hands the whole batch
+ * to the kernel with one OS.submitRing() call, and then reaps every completion in bulk.
+ * Entries are kept in parallel arrays so queueing an operation allocates nothing. The
+ * process is stopped while the kernel consumes the ring, so the two sides never touch
+ * it at the same time and no locking is needed. The completion ring is twice the size
+ * of the submission ring; the kernel leaves entries queued while it is full.
+ */
+public class SyscallRing {
+
+    //The operations that can be queued on a ring
+    public enum Op {
+        send, read, write, allocate_memory, free_memory
+    }
+
+    private final int mask;
+
+    //Submission ring: written by the process at sqTail, consumed by the kernel at sqHead
+    private final Op[] ops;
+    private final int[] firstArguments;
+    private final int[] secondArguments;
+    private final Object[] payloads;
+    private final long[] submissionUserData;
+    private int sqHead;
+    private int sqTail;
+
+    //Completion ring: written by the kernel at cqTail, reaped by the process at cqHead
+    private final int completionMask;
+    private final int[] results;
+    private final Object[] completionPayloads;
+    private final long[] completionUserData;
+    private int cqHead;
+    private int cqTail;
+
+    /**
+     * Creates a ring
+     * @param entries The number of submission entries, a power of two
+     */
+    public SyscallRing(int entries) {
+        if (entries <= 0 || Integer.bitCount(entries) != 1) {
+            throw new IllegalArgumentException("Ring size must be a power of two: " + entries);
+        }
+        mask = entries - 1;
+        ops = new Op[entries];
+        firstArguments = new int[entries];
+        secondArguments = new int[entries];
+        payloads = new Object[entries];
+        submissionUserData = new long[entries];
+
+        completionMask = entries * 2 - 1;
+        results = new int[entries * 2];
+        completionPayloads = new Object[entries * 2];
+        completionUserData = new long[entries * 2];
+    }
+
+    //Queues an entry, returns false when the submission ring is full
+    private boolean prepare(Op op, int first, int second, Object payload, long userData) {
+        if (sqTail - sqHead > mask) {
+            return false;
+        }
+        int slot = sqTail & mask;
+        ops[slot] = op;
+        firstArguments[slot] = first;
+        secondArguments[slot] = second;
+        payloads[slot] = payload;
+        submissionUserData[slot] = userData;
+        sqTail++;
+        return true;
+    }
+
+    /**
+     * Queues a message send; completes with 0
+     * @param message The message, copied by the kernel when it is sent
+     * @param userData A value handed back with the completion
+     * @return false if the submission ring is full
+     */
+    public boolean prepareSend(KernelMessage message, long userData) {
+        return prepare(Op.send, 0, 0, message, userData);
+    }
+
+    /**
+     * Queues a device read; completes with the number of bytes read and the bytes as payload
+     * @param id The device id
+     * @param size The number of bytes to read
+     * @param userData A value handed back with the completion
+     * @return false if the submission ring is full
+     */
+    public boolean prepareRead(int id, int size, long userData) {
+        return prepare(Op.read, id, size, null, userData);
+    }
+
+    /**
+     * Queues a device write; completes with the number of bytes written
+     * @param id The device id
+     * @param data The bytes to write
+     * @param userData A value handed back with the completion
+     * @return false if the submission ring is full
+     */
+    public boolean prepareWrite(int id, byte[] data, long userData) {
+        return prepare(Op.write, id, 0, data, userData);
+    }
+
+    /**
+     * Queues a memory allocation; completes with the start address or -1
+     * @param size The number of bytes, a multiple of 1024
+     * @param userData A value handed back with the completion
+     * @return false if the submission ring is full
+     */
+    public boolean prepareAllocate(int size, long userData) {
+        return prepare(Op.allocate_memory, size, 0, null, userData);
+    }
+
+    /**
+     * Queues a memory free; completes with 0 on success and -1 on failure
+     * @param pointer The start address of the block
+     * @param size The number of bytes to free
+     * @param userData A value handed back with the completion
+     * @return false if the submission ring is full
+     */
+    public boolean prepareFree(int pointer, int size, long userData) {
+        return prepare(Op.free_memory, pointer, size, null, userData);
+    }
+
+    //Returns the number of entries waiting to be submitted
+    public int getPendingSubmissions() {
+        return sqTail - sqHead;
+    }
+
+    //Returns the number of completions waiting to be reaped
+    public int getCompletionCount() {
+        return cqTail - cqHead;
+    }
+
+    //Returns the user data of the i-th unreaped completion
+    public long getCompletionUserData(int i) {
+        return completionUserData[(cqHead + i) & completionMask];
+    }
+
+    //Returns the result of the i-th unreaped completion
+    public int getCompletionResult(int i) {
+        return results[(cqHead + i) & completionMask];
+    }
+
+    //Returns the payload of the i-th unreaped completion, the bytes of a read or null
+    public Object getCompletionPayload(int i) {
+        return completionPayloads[(cqHead + i) & completionMask];
+    }
+
+    /**
+     * Marks completions as reaped so the kernel can reuse their slots
+     * @param count The number of completions, from the oldest, that were handled
+     */
+    public void advance(int count) {
+        for (int i = 0; i < count; i++) {
+            completionPayloads[(cqHead + i) & completionMask] = null;
+        }
+        cqHead += count;
+    }
+
+    //Returns true when the kernel has an entry to consume and room to complete it
+    boolean hasSubmission() {
+        return sqHead != sqTail && cqTail - cqHead <= completionMask;
+    }
+
+    Op getOp() {
+        return ops[sqHead & mask];
+    }
+
+    int getFirstArgument() {
+        return firstArguments[sqHead & mask];
+    }
+
+    int getSecondArgument() {
+        return secondArguments[sqHead & mask];
+    }
+
+    Object getPayload() {
+        return payloads[sqHead & mask];
+    }
+
+    /**
+     * Posts the completion of the entry at the submission head and consumes that entry
+     * @param result The value the operation returned
+     * @param payload The bytes of a read, or null
+     */
+    void complete(int result, Object payload) {
+        int slot = cqTail & completionMask;
+        results[slot] = result;
+        completionPayloads[slot] = payload;
+        completionUserData[slot] = submissionUserData[sqHead & mask];
+        cqTail++;
+        payloads[sqHead & mask] = null;
+        sqHead++;
+    }
+}
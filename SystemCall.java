@@ -0,0 +1,251 @@
+/**
+ * One system call on its way to the kernel. The arguments are final fields of a
+ * typed subclass and the result is written back into the same object, so every call
+ * in flight has its own state and any number of processes, on any number of cores,
+ * can have calls queued at the kernel at once. Each call also carries its own
+ * completion handle, which threads that are not processes wait on. The kernel finds
+ * the handler by the call's number in its SystemCallTable; new system calls subclass
+ * SystemCall with the number the table handed out when they were registered.
+ */
+public abstract class SystemCall {
+
+    private final int number;
+    private final UserlandProcess caller; //Null when the call comes from a thread that is not a process
+    private final long issuedNanos; //System.nanoTime() when the call was made, if os.stats is on
+    private final Handoff completion = new Handoff();
+
+    //Written by the kernel before it releases the completion handle or restarts the caller
+    private int result;
+
+    /**
+     * Creates a built-in call made by the process running on the calling thread
+     * @param type The kind of call
+     */
+    protected SystemCall(OS.CallType type) {
+        this(type.ordinal());
+    }
+
+    /**
+     * Creates a call made by the process running on the calling thread
+     * @param number The call number registered in the kernel's SystemCallTable
+     */
+    protected SystemCall(int number) {
+        this.number = number;
+        this.caller = UserlandProcess.getRunningProcess();
+        this.issuedNanos = SchedulerStatistics.ENABLED ? System.nanoTime() : 0;
+    }
+
+    //Returns the call number the kernel dispatches on
+    public int getNumber() {
+        return number;
+    }
+
+    //Returns the process that made the call, or null for threads that are not processes
+    public UserlandProcess getCaller() {
+        return caller;
+    }
+
+    //Returns when the call was made
+    public long getIssuedNanos() {
+        return issuedNanos;
+    }
+
+    //Returns the value the kernel completed the call with
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * Stores the result and releases anyone waiting on the completion handle
+     * @param result The value the call returns
+     */
+    public void complete(int result) {
+        this.result = result;
+        completion.release();
+    }
+
+    //Blocks until the kernel has completed the call
+    public void awaitCompletion() {
+        completion.acquireUninterruptibly();
+    }
+
+    /**
+     * Creates a process at a priority; completes with its pid, or -1 if it was rejected
+     */
+    public static final class CreateProcess extends SystemCall {
+        private final UserlandProcess process;
+        private final OS.Priority priority;
+
+        public CreateProcess(UserlandProcess process, OS.Priority priority) {
+            super(OS.CallType.create_process);
+            this.process = process;
+            this.priority = priority;
+        }
+
+        public UserlandProcess getProcess() {
+            return process;
+        }
+
+        public OS.Priority getPriority() {
+            return priority;
+        }
+    }
+
+    /**
+     * Opens a device into the caller's device table; completes with the device id, or -1
+     */
+    public static final class Open extends SystemCall {
+        private final String name;
+
+        public Open(String name) {
+            super(OS.CallType.open);
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Closes a device of the caller; completes with 0, or -1 if it had none open with that id
+     */
+    public static final class Close extends SystemCall {
+        private final int id;
+
+        public Close(int id) {
+            super(OS.CallType.close);
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+    }
+
+    /**
+     * Creates a process in a copy-on-write copy of the caller's address space; completes with its pid, or -1
+     */
+    public static final class Fork extends SystemCall {
+        private final UserlandProcess child;
+
+        public Fork(UserlandProcess child) {
+            super(OS.CallType.fork);
+            this.child = child;
+        }
+
+        public UserlandProcess getChild() {
+            return child;
+        }
+    }
+
+    /**
+     * Gives up the CPU to the next ready process
+     */
+    public static final class SwitchProcess extends SystemCall {
+        public SwitchProcess() {
+            super(OS.CallType.switch_process);
+        }
+    }
+
+    /**
+     * Puts the caller to sleep for a number of milliseconds
+     */
+    public static final class Sleep extends SystemCall {
+        private final int milliseconds;
+
+        public Sleep(int milliseconds) {
+            super(OS.CallType.sleep);
+            this.milliseconds = milliseconds;
+        }
+
+        public int getMilliseconds() {
+            return milliseconds;
+        }
+    }
+
+    /**
+     * Allocates a block of memory; completes with its start address, or -1
+     */
+    public static final class AllocateMemory extends SystemCall {
+        private final int size;
+
+        public AllocateMemory(int size) {
+            super(OS.CallType.allocate_memory);
+            this.size = size;
+        }
+
+        public int getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Hands a process's SyscallRing to the kernel; completes with the number of entries consumed
+     */
+    public static final class SubmitRing extends SystemCall {
+        private final SyscallRing ring;
+
+        public SubmitRing(SyscallRing ring) {
+            super(OS.CallType.submit_ring);
+            this.ring = ring;
+        }
+
+        public SyscallRing getRing() {
+            return ring;
+        }
+    }
+
+    /**
+     * Sent by a process whose main() has returned; nobody waits for it to complete
+     */
+    public static final class Exit extends SystemCall {
+        public Exit() {
+            super(OS.CallType.exit);
+        }
+    }
+
+    /**
+     * Frees a block of memory; completes with 0 on success and -1 on failure
+     */
+    public static final class FreeMemory extends SystemCall {
+        private final int pointer;
+        private final int size;
+
+        public FreeMemory(int pointer, int size) {
+            super(OS.CallType.free_memory);
+            this.pointer = pointer;
+            this.size = size;
+        }
+
+        public int getPointer() {
+            return pointer;
+        }
+
+        public int getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Brings a page of the caller into memory; completes with the frame behind it, or -1
+     */
+    public static final class PageFault extends SystemCall {
+        private final int virtualPage;
+        private final boolean write;
+
+        public PageFault(int virtualPage, boolean write) {
+            super(OS.CallType.page_fault);
+            this.virtualPage = virtualPage;
+            this.write = write;
+        }
+
+        public int getVirtualPage() {
+            return virtualPage;
+        }
+
+        public boolean isWrite() {
+            return write;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * Serves one kind of system call on the kernel thread. Handlers are registered in the
+ * kernel's SystemCallTable under a call number.
+ */
+public interface SystemCallHandler {
+
+    /**
+     * Runs the call
+     * @param call The call, an instance of the SystemCall subclass the handler was registered for
+     * @return The result the call completes with; negative values count as errors
+     */
+    int handle(SystemCall call);
+}
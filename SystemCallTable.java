@@ -0,0 +1,129 @@
+/**
+ * The kernel's system call table. Handlers are registered under a call number and the
+ * kernel dispatches by indexing the table, so a new system call only needs a SystemCall
+ * subclass and a register() call. Every entry counts its invocations and errors and
+ * keeps a histogram of how long its handler ran. Only the kernel thread dispatches, so
+ * the counters are plain fields; readers such as report() may see them one call behind.
+ */
+public class SystemCallTable {
+
+    //Largest number of system calls the table can hold
+    public static final int MAX_CALLS = 64;
+
+    //Numbers below this are reserved for the built-in OS.CallType calls
+    private static final int FIRST_DYNAMIC = OS.CallType.values().length;
+
+    private final SystemCallHandler[] handlers = new SystemCallHandler[MAX_CALLS];
+    private final String[] names = new String[MAX_CALLS];
+    private final boolean[] reschedules = new boolean[MAX_CALLS];
+    private final long[] invocations = new long[MAX_CALLS];
+    private final long[] errors = new long[MAX_CALLS];
+    private final LatencyHistogram[] latencies = new LatencyHistogram[MAX_CALLS];
+    private int nextNumber = FIRST_DYNAMIC;
+
+    /**
+     * Registers the handler of a built-in call under the call type's number
+     * @param type The built-in call
+     * @param reschedules True if the handler starts the next process itself, so the kernel must not restart the caller
+     * @param handler Serves the call
+     */
+    public void register(OS.CallType type, boolean reschedules, SystemCallHandler handler) {
+        register(type.ordinal(), type.name(), reschedules, handler);
+    }
+
+    /**
+     * Registers a new system call under the next free number
+     * @param name The name shown in reports
+     * @param reschedules True if the handler starts the next process itself, so the kernel must not restart the caller
+     * @param handler Serves the call
+     * @return The call number to pass to the SystemCall constructor
+     */
+    public synchronized int register(String name, boolean reschedules, SystemCallHandler handler) {
+        if (nextNumber == MAX_CALLS) {
+            throw new IllegalStateException("System call table is full");
+        }
+        int number = nextNumber++;
+        register(number, name, reschedules, handler);
+        return number;
+    }
+
+    //Fills in one entry of the table
+    private void register(int number, String name, boolean reschedules, SystemCallHandler handler) {
+        if (handlers[number] != null) {
+            throw new IllegalArgumentException("System call " + number + " is already registered as " + names[number]);
+        }
+        names[number] = name;
+        this.reschedules[number] = reschedules;
+        latencies[number] = new LatencyHistogram();
+        handlers[number] = handler;
+    }
+
+    /**
+     * Runs the handler registered for a call and records its counters. A call with no
+     * handler, or whose handler throws, completes with -1.
+     * @param call The call to serve
+     * @return The result of the call
+     */
+    public int dispatch(SystemCall call) {
+        int number = call.getNumber();
+        SystemCallHandler handler = number >= 0 && number < MAX_CALLS ? handlers[number] : null;
+        if (handler == null) {
+            System.out.println("Unknown system call " + number);
+            return -1;
+        }
+        long start = System.nanoTime();
+        int result;
+        try {
+            result = handler.handle(call);
+        } catch (RuntimeException e) {
+            System.out.println("System call " + names[number] + " failed: " + e);
+            result = -1;
+        }
+        latencies[number].record(System.nanoTime() - start);
+        invocations[number]++;
+        if (result < 0) {
+            errors[number]++;
+        }
+        return result;
+    }
+
+    //Returns true when the call's handler starts the next process itself
+    public boolean reschedules(int number) {
+        return reschedules[number];
+    }
+
+    //Returns the name a call was registered under, or null if the number is free
+    public String getName(int number) {
+        return names[number];
+    }
+
+    //Returns how many times a call has been served
+    public long getInvocations(int number) {
+        return invocations[number];
+    }
+
+    //Returns how many times a call completed with a negative result
+    public long getErrors(int number) {
+        return errors[number];
+    }
+
+    //Returns how long a call's handler ran, or null if the number is free
+    public LatencyHistogram getLatency(int number) {
+        return latencies[number];
+    }
+
+    /**
+     * Builds one line per registered call with its counters
+     * @return The report
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("System calls\n");
+        for (int number = 0; number < MAX_CALLS; number++) {
+            if (handlers[number] != null) {
+                report.append(String.format("  %2d %-16s errors=%d %s%n", number, names[number],
+                        errors[number], latencies[number]));
+            }
+        }
+        return report.toString();
+    }
+}
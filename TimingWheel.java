@@ -0,0 +1,116 @@
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel used by the Scheduler to hold sleeping processes.
+ * Four levels of 64 slots each cover 2^24 ticks; an item is filed in the level that
+ * matches how far away its expiry is and cascades down one level each time the level
+ * below wraps around. Insertion is O(1) and expiry is amortized O(1), since an item
+ * is moved at most once per level.
+ */
+public class TimingWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    //Items further away than this are parked on the top level and re-filed when it cascades
+    public static final long MAX_DELAY = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    /**
+     * Singly linked entry in a wheel slot
+     */
+    private static final class Node<T> {
+        private final T item;
+        private final long expiryTick;
+        private Node<T> next;
+
+        private Node(T item, long expiryTick) {
+            this.item = item;
+            this.expiryTick = expiryTick;
+        }
+    }
+
+    private final Node<T>[][] wheels;
+    private long currentTick;
+    private int size;
+
+    /**
+     * Creates an empty wheel positioned at tick 0
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel() {
+        wheels = new Node[LEVELS][SLOTS];
+    }
+
+    //Returns the tick the wheel has advanced to
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    //Returns the number of items waiting to expire
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Files an item to expire on the given tick. Items already due expire on the next advance.
+     * @param item The item to hold
+     * @param expiryTick The tick on which the item expires
+     */
+    public void schedule(T item, long expiryTick) {
+        insert(new Node<>(item, Math.max(expiryTick, currentTick + 1)));
+        size++;
+    }
+
+    /**
+     * Moves the wheel forward one tick and hands every item due on that tick to the consumer
+     * @param expired Receives each expired item
+     */
+    public void advance(Consumer<? super T> expired) {
+        currentTick++;
+
+        // Find the highest level whose lower levels all wrap on this tick, then cascade from the top down
+        int level = 0;
+        while (level < LEVELS - 1 && (currentTick & ((1L << (SLOT_BITS * (level + 1))) - 1)) == 0) {
+            level++;
+        }
+        for (; level > 0; level--) {
+            int index = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            Node<T> node = wheels[level][index];
+            wheels[level][index] = null;
+            while (node != null) {
+                Node<T> next = node.next;
+                insert(node);
+                node = next;
+            }
+        }
+
+        int index = (int) (currentTick & SLOT_MASK);
+        Node<T> node = wheels[0][index];
+        wheels[0][index] = null;
+        while (node != null) {
+            Node<T> next = node.next;
+            size--;
+            expired.accept(node.item);
+            node = next;
+        }
+    }
+
+    //Links a node into the slot matching its distance from the current tick
+    private void insert(Node<T> node) {
+        long delay = node.expiryTick - currentTick;
+        long expiry = node.expiryTick;
+        if (delay > MAX_DELAY) {
+            expiry = currentTick + MAX_DELAY;
+            delay = MAX_DELAY;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int index = (int) ((expiry >>> (SLOT_BITS * level)) & SLOT_MASK);
+        node.next = wheels[level][index];
+        wheels[level][index] = node;
+    }
+}
@@ -0,0 +1,159 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Set-associative TLB of one simulated core. Every entry is tagged with the address
+ * space ID (ASID) of the process that filled it, so a context switch does not need a
+ * flush: a process can only hit its own entries. Each entry is packed into one long
+ * (15-bit ASID, writable bit, 21-bit virtual page, 27-bit physical page) so a lookup is a
+ * single read that can never see half of an entry the kernel is invalidating. ASID 0 is
+ * never handed out, so an empty entry, 0, matches no tag. The fields are as wide as the
+ * page table's: the whole 2GB virtual address space and every frame it can map.
+ * An entry filled by a read is not writable, so the first write to a page misses and
+ * walks the page table, which marks the page dirty, the way an MMU sets the dirty bit. Sets are
+ * picked from the virtual page and the ASID; within a set entries are replaced round robin.
+ * The size is read from the "os.tlb.sets" and "os.tlb.ways" system properties.
+ */
+public class TranslationLookasideBuffer {
+
+    //Largest ASID a tag can hold; 0 is never handed out
+    public static final int MAX_ASID = 0x7FFF;
+
+    private static final int ASID_SHIFT = 49;
+    private static final long WRITABLE = 1L << 48;
+    private static final int PAGE_SHIFT = PageTable.FIELD_BITS;
+    private static final long PAGE_MASK = PageTable.PAGES - 1;
+    private static final long FRAME_MASK = (1L << PageTable.FIELD_BITS) - 1;
+    private static final long TAG_MASK = ~(FRAME_MASK | WRITABLE);
+
+    private final int setMask;
+    private final int ways;
+    private final AtomicLongArray entries;
+    private final int[] nextVictim;
+
+    //Only the process running on this core translates, so plain counters are enough; readers may lag a little
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a TLB sized from the os.tlb.sets (16) and os.tlb.ways (4) system properties
+     */
+    public TranslationLookasideBuffer() {
+        this(Integer.getInteger("os.tlb.sets", 16), Integer.getInteger("os.tlb.ways", 4));
+    }
+
+    /**
+     * Creates an empty TLB
+     * @param sets The number of sets, a power of two
+     * @param ways The number of entries in each set
+     */
+    public TranslationLookasideBuffer(int sets, int ways) {
+        if (sets <= 0 || Integer.bitCount(sets) != 1 || ways <= 0) {
+            throw new IllegalArgumentException("TLB needs a power of two sets and at least one way: " + sets + "x" + ways);
+        }
+        this.setMask = sets - 1;
+        this.ways = ways;
+        this.entries = new AtomicLongArray(sets * ways);
+        this.nextVictim = new int[sets];
+    }
+
+    //Builds the tag part of an entry
+    private static long tag(int asid, int virtualPage) {
+        return ((long) asid << ASID_SHIFT) | ((virtualPage & PAGE_MASK) << PAGE_SHIFT);
+    }
+
+    //Index of the first entry of the set a page maps to
+    private int setOf(int asid, int virtualPage) {
+        return ((virtualPage ^ (asid * 0x9E37)) & setMask) * ways;
+    }
+
+    /**
+     * Looks a virtual page up
+     * @param asid The address space of the translating process
+     * @param virtualPage The virtual page number
+     * @param write True for a write, which only hits a writable entry
+     * @return The physical page number, or -1 on a miss
+     */
+    public int lookup(int asid, int virtualPage, boolean write) {
+        long tag = tag(asid, virtualPage);
+        int first = setOf(asid, virtualPage);
+        for (int i = first; i < first + ways; i++) {
+            long entry = entries.get(i);
+            if ((entry & TAG_MASK) == tag && (!write || (entry & WRITABLE) != 0)) {
+                hits++;
+                return (int) (entry & FRAME_MASK);
+            }
+        }
+        misses++;
+        return -1;
+    }
+
+    /**
+     * Caches a translation, replacing an entry of the same page or else the next
+     * entry of its set in round robin order
+     * @param asid The address space of the translating process
+     * @param virtualPage The virtual page number
+     * @param physicalPage The physical page number it maps to
+     * @param writable True if writes may use the entry without walking the page table
+     */
+    public void fill(int asid, int virtualPage, int physicalPage, boolean writable) {
+        long tag = tag(asid, virtualPage);
+        int set = (virtualPage ^ (asid * 0x9E37)) & setMask;
+        int index = -1;
+        for (int i = set * ways; i < set * ways + ways; i++) {
+            if ((entries.get(i) & TAG_MASK) == tag) {
+                index = i;
+            }
+        }
+        if (index == -1) {
+            int victim = nextVictim[set];
+            nextVictim[set] = victim + 1 == ways ? 0 : victim + 1;
+            index = set * ways + victim;
+        }
+        entries.lazySet(index, tag | (writable ? WRITABLE : 0) | (physicalPage & FRAME_MASK));
+    }
+
+    /**
+     * Drops the translation of one page, called when the kernel unmaps it
+     * @param asid The address space the page belongs to
+     * @param virtualPage The virtual page number
+     */
+    public void invalidate(int asid, int virtualPage) {
+        long tag = tag(asid, virtualPage);
+        int first = setOf(asid, virtualPage);
+        for (int i = first; i < first + ways; i++) {
+            long entry = entries.get(i);
+            if ((entry & TAG_MASK) == tag) {
+                entries.compareAndSet(i, entry, 0);
+            }
+        }
+    }
+
+    /**
+     * Drops every translation of one address space, called before its ASID is reused
+     * @param asid The address space to forget
+     */
+    public void invalidateAll(int asid) {
+        for (int i = 0; i < entries.length(); i++) {
+            long entry = entries.get(i);
+            if ((int) (entry >>> ASID_SHIFT) == asid) {
+                entries.compareAndSet(i, entry, 0);
+            }
+        }
+    }
+
+    //Returns the number of lookups that found their page
+    public long getHits() {
+        return hits;
+    }
+
+    //Returns the number of lookups that had to walk the page table
+    public long getMisses() {
+        return misses;
+    }
+
+    //Returns hits / lookups, or 0 before the first lookup
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
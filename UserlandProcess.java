@@ -1,6 +1,8 @@
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.concurrent.Semaphore;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a Userland Process in the Operating System
@@ -9,51 +11,331 @@ import java.util.concurrent.Semaphore;
 public abstract class UserlandProcess implements Runnable {
 
     /**
-     * Private members to store the thread, the semaphore,
+     * Private members to store the thread, the handoff,
      * the quantum, and the Process ID
      */
     private Thread thread;
-    private Semaphore mySemaphore = new Semaphore(0);
-    private boolean quantum;
-    private static int pid; //Process ID
+    private Handoff myHandoff = new Handoff(); //Holds a permit while the process may run
+    private volatile boolean quantum; //Set by the timer thread, read by the process in cooperate()
+    private volatile boolean exited; //Set once main() has returned
+    private volatile boolean discarded; //Set when the kernel gave up creating the process, so main() never runs
+    private int pid; //Process ID
+    private volatile ProcessSnapshot snapshot; //Published by the kernel when the process is created
+    private volatile KernelandProcess kernelandProcess; //The kernel's side of this process, holding its page table
+    private long faults; //Page faults this process has taken, so a translation can tell a fault came between two others
 
     private Instant wakeupTime;
     private ProcessState state;
     private String name;
 
+    //Current feedback queue level and the ticks used at that level
+    private OS.Priority priority = OS.Priority.INTERACTIVE;
+    private int quantumTicksUsed;
+
+    //Virtual runtime for the fair scheduling policy, with creation order to break ties
+    private long virtualRuntime;
+    private final long creationOrder = nextCreationOrder.getAndIncrement();
+    private static final AtomicLong nextCreationOrder = new AtomicLong();
+
+    //Core the process was last queued on, and the process each thread is running
+    private volatile Processor processor;
+    private static final ThreadLocal<UserlandProcess> runningProcess = new ThreadLocal<>();
+
+    //System.nanoTime() stamps and totals kept by SchedulerStatistics under the core lock
+    private long readySince;
+    private long dispatchedAt;
+    private long readyWaitNanos;
+    private long cpuTimeNanos;
+
     private ArrayList<Integer> openDevices = new ArrayList<>();
+    private SyscallRing ring; //Created on first use by getRing()
 
     private static final int PAGE_SIZE = 1024;
 
     /**
-     * A constructor that initializes the members
+     * A constructor that initializes the members and starts the
+     * process on a thread of the selected ExecutionBackend, named after its class
      */
     public UserlandProcess() {
-        this.thread = new Thread(this);
+        this(null);
+    }
+
+    /**
+     * A constructor that initializes the members and starts the
+     * process on a thread of the selected ExecutionBackend
+     * @param name The name other processes find it by with GetPidByName, or null to name it
+     *             after its class; anonymous and lambda classes are named "process"
+     */
+    public UserlandProcess(String name) {
+        String simpleName = getClass().getSimpleName();
+        this.name = name != null ? name : simpleName.isEmpty() ? "process" : simpleName;
+        this.thread = ExecutionBackend.getSelected().newThread(this);
         this.quantum = false;
         this.thread.start();
-        this.name = name;
     }
 
-    //
+    //Reads a byte of this process's memory; an unmapped address throws a MemoryFault that ends the process
     public byte Read(int address) {
-
-        int physicalAddress = getPhysicalAddress(address);
-        return Kernel.ReadMemory(physicalAddress);
+        beginAccess();
+        try {
+            return Kernel.ReadMemory(getPhysicalAddress(address, false));
+        } finally {
+            endAccess();
+        }
     }
 
-    //
+    //Writes a byte of this process's memory; an unmapped address throws a MemoryFault that ends the process
     public void Write(int address, byte value) {
-        int physicalAddress = getPhysicalAddress(address);
-        Kernel.WriteMemory(physicalAddress, value);
+        beginAccess();
+        try {
+            Kernel.WriteMemory(getPhysicalAddress(address, true), value);
+        } finally {
+            endAccess();
+        }
     }
 
-    //
-    private int getPhysicalAddress(int virtualAddress) {
+    /**
+     * Copies a block of this process's memory into an array. Each page is translated
+     * once and copied in bulk, so this is much faster than reading byte by byte.
+     * @param address The virtual address of the first byte
+     * @param destination The array to fill
+     * @param offset Where in the array the first byte goes
+     * @param length The number of bytes
+     * @return The number of bytes copied
+     * @throws MemoryFault if the block reaches a page that is not allocated
+     */
+    public int Read(int address, byte[] destination, int offset, int length) {
+        checkRange(destination.length, offset, length);
+        int copied = 0;
+        while (copied < length) {
+            int run = pageRun(address + copied, length - copied);
+            beginAccess();
+            try {
+                long physicalAddress = getPhysicalAddress(address + copied, false);
+                Kernel.ReadMemory(physicalAddress, destination, offset + copied, run);
+            } finally {
+                endAccess();
+            }
+            copied += run;
+        }
+        return copied;
+    }
+
+    /**
+     * Copies an array into a block of this process's memory, one bulk copy per page
+     * @param address The virtual address of the first byte
+     * @param source The array to copy from
+     * @param offset Where in the array the first byte is
+     * @param length The number of bytes
+     * @return The number of bytes copied
+     * @throws MemoryFault if the block reaches a page that is not allocated
+     */
+    public int Write(int address, byte[] source, int offset, int length) {
+        checkRange(source.length, offset, length);
+        int copied = 0;
+        while (copied < length) {
+            int run = pageRun(address + copied, length - copied);
+            beginAccess();
+            try {
+                long physicalAddress = getPhysicalAddress(address + copied, true);
+                Kernel.WriteMemory(physicalAddress, source, offset + copied, run);
+            } finally {
+                endAccess();
+            }
+            copied += run;
+        }
+        return copied;
+    }
+
+    /**
+     * Fills the remaining space of a buffer from this process's memory, advancing its position
+     * @param address The virtual address of the first byte
+     * @param destination The buffer to fill
+     * @return The number of bytes copied
+     * @throws MemoryFault if the block reaches a page that is not allocated
+     */
+    public int Read(int address, ByteBuffer destination) {
+        int length = destination.remaining();
+        int copied = 0;
+        while (copied < length) {
+            int run = pageRun(address + copied, length - copied);
+            beginAccess();
+            try {
+                long physicalAddress = getPhysicalAddress(address + copied, false);
+                Kernel.ReadMemory(physicalAddress, destination, run);
+            } finally {
+                endAccess();
+            }
+            copied += run;
+        }
+        return copied;
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer into this process's memory, advancing its position
+     * @param address The virtual address of the first byte
+     * @param source The buffer to copy from
+     * @return The number of bytes copied
+     * @throws MemoryFault if the block reaches a page that is not allocated
+     */
+    public int Write(int address, ByteBuffer source) {
+        int length = source.remaining();
+        int copied = 0;
+        while (copied < length) {
+            int run = pageRun(address + copied, length - copied);
+            beginAccess();
+            try {
+                long physicalAddress = getPhysicalAddress(address + copied, true);
+                Kernel.WriteMemory(physicalAddress, source, run);
+            } finally {
+                endAccess();
+            }
+            copied += run;
+        }
+        return copied;
+    }
+
+    /**
+     * Copies a block of this process's memory to another address. As with C's memcpy
+     * the two blocks must not overlap. Both sides are translated once per page and the
+     * bytes move between physical pages without passing through the Java heap.
+     * @param destination The virtual address to copy to
+     * @param source The virtual address to copy from
+     * @param length The number of bytes
+     * @return The number of bytes copied
+     * @throws MemoryFault if the block reaches a page that is not allocated
+     */
+    public int MemoryCopy(int destination, int source, int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length " + length);
+        }
+        int copied = 0;
+        while (copied < length) {
+            int run = Math.min(pageRun(source + copied, length - copied), pageRun(destination + copied, length - copied));
+            beginAccess();
+            try {
+                long from;
+                long to;
+                long faulted;
+                do {
+                    // A fault ends the access, so the page translated before it may have been reclaimed; translate both again
+                    faulted = faults;
+                    from = getPhysicalAddress(source + copied, false);
+                    to = getPhysicalAddress(destination + copied, true);
+                } while (faulted != faults);
+                Kernel.CopyMemory(from, to, run);
+            } finally {
+                endAccess();
+            }
+            copied += run;
+        }
+        return copied;
+    }
+
+    /**
+     * Sets a block of this process's memory to one value, one bulk fill per page
+     * @param address The virtual address of the first byte
+     * @param value The value every byte is set to
+     * @param length The number of bytes
+     * @return The number of bytes set
+     * @throws MemoryFault if the block reaches a page that is not allocated
+     */
+    public int MemorySet(int address, byte value, int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length " + length);
+        }
+        byte[] pattern = new byte[Math.min(length, PAGE_SIZE)];
+        if (value != 0) {
+            Arrays.fill(pattern, value);
+        }
+        int set = 0;
+        while (set < length) {
+            int run = pageRun(address + set, length - set);
+            beginAccess();
+            try {
+                long physicalAddress = getPhysicalAddress(address + set, true);
+                Kernel.FillMemory(physicalAddress, run, pattern);
+            } finally {
+                endAccess();
+            }
+            set += run;
+        }
+        return set;
+    }
+
+    //Starts an access: from here until endAccess() the kernel waits before taking back a page this process translated
+    private void beginAccess() {
+        KernelandProcess kp = kernelandProcess;
+        if (kp != null) {
+            kp.beginAccess();
+        }
+    }
+
+    //Ends an access once its physical memory has been read or written
+    private void endAccess() {
+        KernelandProcess kp = kernelandProcess;
+        if (kp != null) {
+            kp.endAccess();
+        }
+    }
+
+    //Returns how many of the remaining bytes fit between an address and the end of its page
+    private static int pageRun(int virtualAddress, int remaining) {
+        return Math.min(remaining, PAGE_SIZE - virtualAddress % PAGE_SIZE);
+    }
+
+    //Rejects an offset and length that do not fit in an array
+    private static void checkRange(int arrayLength, int offset, int length) {
+        if (offset < 0 || length < 0 || length > arrayLength - offset) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + arrayLength);
+        }
+    }
+
+    /**
+     * Translates through the TLB of the core the process runs on, walking the
+     * process's page table on a miss and faulting the page in if nothing backs it yet
+     * @param virtualAddress The address to translate
+     * @param write True for a write, which marks the page dirty
+     * @return The physical address
+     * @throws MemoryFault if the page is not allocated, or memory and swap are both too full to back it
+     */
+    private long getPhysicalAddress(int virtualAddress, boolean write) {
         int virtualPage = virtualAddress / PAGE_SIZE;
         int pageOffset = virtualAddress % PAGE_SIZE;
-        int physicalPage = KernelandProcess.GetMapping(virtualPage);
-        return physicalPage * PAGE_SIZE + pageOffset;
+        KernelandProcess kp = kernelandProcess;
+        if (kp == null || virtualAddress < 0) {
+            throw new MemoryFault("Segmentation fault", virtualAddress);
+        }
+        TranslationLookasideBuffer tlb = processor == null ? null : processor.getTlb();
+        int physicalPage = tlb == null ? -1 : tlb.lookup(kp.getAsid(), virtualPage, write);
+        if (physicalPage == -1) {
+            physicalPage = kp.GetMapping(virtualPage, write);
+            while (physicalPage == -1) {
+                if (!kp.isAllocated(virtualPage)) {
+                    throw new MemoryFault("Segmentation fault", virtualAddress);
+                }
+                // First touch, or the page was swapped out. The access ends while the kernel
+                // handles the fault, so the kernel never waits for a process that waits for it
+                faults++;
+                kp.endAccess();
+                try {
+                    physicalPage = OS.pageFault(virtualPage, write);
+                } finally {
+                    kp.beginAccess();
+                }
+                if (physicalPage == -1) {
+                    throw new MemoryFault("Out of memory", virtualAddress);
+                }
+                // The page may have been taken back before the access started again, so walk to it again
+                physicalPage = kp.GetMapping(virtualPage, write);
+            }
+            // A fault may have moved the process to another core
+            tlb = processor == null ? null : processor.getTlb();
+            if (tlb != null) {
+                tlb.fill(kp.getAsid(), virtualPage, physicalPage, write);
+            }
+        }
+        return (long) physicalPage * PAGE_SIZE + pageOffset;
     }
 
 
@@ -61,6 +343,11 @@ public abstract class UserlandProcess implements Runnable {
         return name;
     }
 
+    //Renames the process when it is created, if another live process already has its name
+    void setName(String name) {
+        this.name = name;
+    }
+
     /**
      * Enum representing the state of the process
      */
@@ -88,6 +375,107 @@ public abstract class UserlandProcess implements Runnable {
         return wakeupTime;
     }
 
+    /**
+     * Retrieves the feedback queue level the process is currently on.
+     * @return The current priority level.
+     */
+    public OS.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Moves the process to another feedback queue level.
+     * @param priority The new priority level.
+     */
+    public void setPriority(OS.Priority priority) {
+        this.priority = priority;
+    }
+
+    //Retrieves the virtual runtime used by the fair scheduling policy
+    public long getVirtualRuntime() {
+        return virtualRuntime;
+    }
+
+    //Sets the virtual runtime used by the fair scheduling policy
+    public void setVirtualRuntime(long virtualRuntime) {
+        this.virtualRuntime = virtualRuntime;
+    }
+
+    //Retrieves the order in which the process was created
+    public long getCreationOrder() {
+        return creationOrder;
+    }
+
+    //Retrieves the core the process was last queued on
+    public Processor getProcessor() {
+        return processor;
+    }
+
+    //Sets the core the process is queued on
+    public void setProcessor(Processor processor) {
+        this.processor = processor;
+    }
+
+    //Returns the process whose thread is calling, or null for the kernel and other non-process threads
+    public static UserlandProcess getRunningProcess() {
+        return runningProcess.get();
+    }
+
+    //Retrieves the CPU time the process used, in nanoseconds, up to its last switch (needs os.stats)
+    public long getCpuTimeNanos() {
+        return cpuTimeNanos;
+    }
+
+    //Retrieves the total time the process waited on a ready queue, in nanoseconds (needs os.stats)
+    public long getReadyWaitNanos() {
+        return readyWaitNanos;
+    }
+
+    long getReadySince() {
+        return readySince;
+    }
+
+    void setReadySince(long readySince) {
+        this.readySince = readySince;
+    }
+
+    long getDispatchedAt() {
+        return dispatchedAt;
+    }
+
+    void setDispatchedAt(long dispatchedAt) {
+        this.dispatchedAt = dispatchedAt;
+    }
+
+    void addReadyWait(long nanos) {
+        readyWaitNanos += nanos;
+    }
+
+    void addCpuTime(long nanos) {
+        cpuTimeNanos += nanos;
+    }
+
+    //Charges one timer tick to the process and returns the ticks used at this level
+    public int chargeQuantumTick() {
+        return ++quantumTicksUsed;
+    }
+
+    //Clears the ticks used at the current level
+    public void resetQuantumTicks() {
+        quantumTicksUsed = 0;
+    }
+
+    /**
+     * Returns the process's batched system call ring, creating it on first use
+     * @return The ring
+     */
+    public SyscallRing getRing() {
+        if (ring == null) {
+            ring = new SyscallRing(256);
+        }
+        return ring;
+    }
+
     /**
      * Returns a list of device IDs that are currently open for this process.
      * @return A list of open device IDs.
@@ -118,12 +506,12 @@ public abstract class UserlandProcess implements Runnable {
     abstract void main();
 
     /**
-     * indicates if the semaphore is 0
-     * @return true if semaphore is 0
-     * @return false if it isn't
+     * indicates if the handoff has no permit left
+     * @return true if it has none
+     * @return false if it has
      */
     public boolean isStopped() {
-        if (mySemaphore.availablePermits() == 0) {
+        if (myHandoff.availablePermits() == 0) {
             return true;
         } else {
             return false;
@@ -135,7 +523,7 @@ public abstract class UserlandProcess implements Runnable {
      * @return true when the Java thread is not alive
      */
     public boolean isDone() {
-        if (!thread.isAlive()) {
+        if (exited || !thread.isAlive()) {
             return true;
         } else {
             return false;
@@ -143,32 +531,60 @@ public abstract class UserlandProcess implements Runnable {
     }
 
     /**
-     * releases (increments) the semaphore, allowing this thread to run
+     * releases a permit to the handoff, unparking this thread so it can run
      */
     public void start() {
-        mySemaphore.release();
+        myHandoff.release();
+    }
+
+    /**
+     * Ends the thread of a process that will never run, without running main(): one
+     * the kernel could not create, after it has taken back its pid, snapshot and
+     * KernelandProcess, or one a benchmark only used to drive a scheduler
+     */
+    void discard() {
+        discarded = true;
+        myHandoff.release();
     }
 
     /**
-     * acquires (decrements) the semaphore, stopping this thread from running
+     * acquires a permit from the handoff, parking this thread until it is started
      */
     public void stop() {
         try {
-            mySemaphore.acquire();
+            myHandoff.acquire();
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * acquires the semaphore, then call main
+     * acquires the handoff, then call main. When main returns, or a MemoryFault
+     * kills the process, the core is told so it can dispatch another process straight away
      */
     public void run() {
+        runningProcess.set(this);
         try {
-            mySemaphore.acquire();
-            main();
+            myHandoff.acquire();
+            if (!discarded) {
+                main();
+            }
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
+        } catch (MemoryFault e) {
+            System.out.println(name + " (pid " + pid + ") killed: " + e.getMessage());
+        } finally {
+            exited = true;
+            if (snapshot != null) {
+                OS.removeProcessName(snapshot.getName(), snapshot.getPid());
+            }
+            if (kernelandProcess != null && (kernelandProcess.getAsid() != 0 || kernelandProcess.hasDevices())) {
+                OS.exit(); // Lets the kernel reclaim the address space and close the devices
+            }
+            if (processor != null) {
+                processor.exited(this);
+                Scheduler.skipIdleTime();
+            }
         }
     }
 
@@ -176,20 +592,52 @@ public abstract class UserlandProcess implements Runnable {
      * if the boolean is true, set the boolean to false and call OS.switchProcess()
      */
     public void cooperate() {
+        Scheduler.consumeTick(); //A unit of work costs one tick in virtual time
+        if (takeStopRequest()) {
+            OS.SwitchProcess();
+        }
+    }
+
+    /**
+     * Clears the boolean set by requestStop()
+     * @return true if a stop had been requested
+     */
+    public boolean takeStopRequest() {
         if (quantum == true) {
             quantum = false;
-            OS.SwitchProcess();
+            return true;
         }
+        return false;
     }
 
     /**
      * Accessor used to retrieve the Process ID
      * @return pid - Process ID
      */
-    public static int getPid() {
+    public int getPid() {
         return pid;
     }
 
+    //Retrieves the snapshot the kernel published for this process, or null before it was created
+    public ProcessSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    //Retrieves the kernel's side of this process
+    public KernelandProcess getKernelandProcess() {
+        return kernelandProcess;
+    }
+
+    //Attaches the kernel's side of this process; only the kernel calls this
+    void setKernelandProcess(KernelandProcess kernelandProcess) {
+        this.kernelandProcess = kernelandProcess;
+    }
+
+    //Publishes the process's snapshot; only the kernel calls this
+    void setSnapshot(ProcessSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
     /**
      * Initializes the Process ID
      * @param pid - Process ID
@@ -14,6 +14,7 @@ public class VFS implements Device {
     private Device[] devices;
     private int[] deviceIds;
     private Random random;
+    private final RandomDevice randomDevice = new RandomDevice();
     private static File swapFile;
 
     /**
@@ -55,15 +56,37 @@ public class VFS implements Device {
     }
 
     /**
-     * Opens a file/device and returns a VFS ID.
-     * @param s The filename or identifier (not used in this implementation).
-     * @return The VFS ID or -1 if no available slot is found.
+     * Opens a device and returns a VFS ID. The name is the device followed by its
+     * argument: "random" or "random 42" opens a random device, seeded with 42.
+     * @param s The device name and its argument.
+     * @return The VFS ID or -1 if the device is unknown, cannot be opened or no slot is free.
      */
     @Override
     public int Open(String s) {
+        if (s == null) {
+            return -1;
+        }
+        String[] parts = s.trim().split("\\s+", 2);
+        Device device;
+        if (parts[0].equals("random")) {
+            device = randomDevice;
+        } else {
+            return -1;
+        }
         // Find an available slot in the VFS
         for (int i = 0; i < devices.length; i++) {
             if (devices[i] == null) {
+                int deviceId;
+                try {
+                    deviceId = device.Open(parts.length > 1 ? parts[1] : null);
+                } catch (NumberFormatException e) {
+                    return -1; // The argument is not a seed
+                }
+                if (deviceId == -1) {
+                    return -1;
+                }
+                devices[i] = device;
+                deviceIds[i] = deviceId;
                 return i; // Return the VFS ID
             }
         }
@@ -78,6 +101,9 @@ public class VFS implements Device {
     public void Close(int id) {
         // Close the device associated with the given VFS ID
         if (id >= 0 && id < devices.length) {
+            if (devices[id] != null) {
+                devices[id].Close(deviceIds[id]);
+            }
             devices[id] = null;
             deviceIds[id] = 0;
         }
@@ -0,0 +1,50 @@
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * Clock for the deterministic simulation mode. Time starts at the epoch and only moves
+ * when the Scheduler advances it, one tick at a time, so a run does not depend on how
+ * fast the host executes it.
+ */
+public class VirtualClock extends Clock {
+
+    private final ZoneId zone;
+    private volatile long millis;
+
+    //Creates a virtual clock at the epoch in the system time zone
+    public VirtualClock() {
+        this(ZoneId.systemDefault());
+    }
+
+    private VirtualClock(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    //Moves simulated time forward
+    public void advance(long millis) {
+        this.millis += millis;
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        VirtualClock clock = new VirtualClock(zone);
+        clock.millis = millis;
+        return clock;
+    }
+}